@@ -41,6 +41,7 @@ import com.meerkat.log.Log;
 import java.time.Instant;
 
 public class Compass extends Service implements SensorEventListener {
+    private static final Log.Tag log = new Log.Tag("Compass");
 
     static GeomagneticField geoField;
     private static float Declination = 0;
@@ -69,7 +70,7 @@ public class Compass extends Service implements SensorEventListener {
         Gps.getLatLonAltTime(GpsLocation);
         geoField = new GeomagneticField((float) GpsLocation.getLatitude(), (float) GpsLocation.getLongitude(), (float) GpsLocation.getAltitude(), GpsLocation.getTime());
         var newDeclination = geoField.getDeclination();
-        Log.i("Mag declination changed from %.1f to %.1f", Declination, newDeclination);
+        log.i("Mag declination changed from %.1f to %.1f", Declination, newDeclination);
         Declination = newDeclination;
     }
 
@@ -87,7 +88,7 @@ public class Compass extends Service implements SensorEventListener {
     public void stop() {
         pause();
         this.stopSelf();
-        Log.i("Compass stopped");
+        log.i("Compass stopped");
     }
 
     @Override
@@ -110,7 +111,7 @@ public class Compass extends Service implements SensorEventListener {
         }
 
         var now = Instant.now();
-        Log.v("%s %9.2f %9.2f %9.2f", event.sensor.getType() == Sensor.TYPE_ACCELEROMETER ? "Accel" : "Mag", event.values[0], event.values[1], event.values[2]);
+        if (log.isLoggable(Log.Level.V)) log.v("%s %9.2f %9.2f %9.2f", event.sensor.getType() == Sensor.TYPE_ACCELEROMETER ? "Accel" : "Mag", event.values[0], event.values[1], event.values[2]);
         if (!lastRead.isBefore(now.minusSeconds(1))) return;
         lastRead = now;
         // Compute the three orientation angles based on the most recent readings from the accelerometer and magnetometer.
@@ -123,7 +124,7 @@ public class Compass extends Service implements SensorEventListener {
             Heading = (float) (Math.toDegrees(orientation[0]));
             //          Get "Pitch" and "Roll" from elements 1 and 2 of the array
 
-            Log.v("Mag %5.1f %5.1f %5.1f | Acc %5.1f %5.1f %5.1f | Mag deg %3.0f",
+            if (log.isLoggable(Log.Level.V)) log.v("Mag %5.1f %5.1f %5.1f | Acc %5.1f %5.1f %5.1f | Mag deg %3.0f",
                     mag[0], mag[1], mag[2],
                     grav[0], grav[1], grav[2],
                     Heading);
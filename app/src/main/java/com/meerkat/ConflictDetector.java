@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import static com.meerkat.ui.settings.SettingsViewModel.dangerRadiusMetres;
+import static com.meerkat.ui.settings.SettingsViewModel.gradientMinimumDiff;
+import static com.meerkat.ui.settings.SettingsViewModel.ownId;
+import static com.meerkat.ui.settings.SettingsViewModel.polynomialPredictionStepMilliS;
+import static com.meerkat.ui.settings.SettingsViewModel.predictionMilliS;
+import static com.meerkat.ui.settings.SettingsViewModel.showPolynomialPredictionTrack;
+
+import android.location.Location;
+
+import com.meerkat.log.Log;
+import com.meerkat.measure.Position;
+
+/**
+ * Closest point of approach (CPA) between ownShip and each vehicle, recalculated whenever a vehicle is updated.
+ * <p>
+ * Positions are projected onto a flat plane centred on ownShip, which is accurate enough over the few km that
+ * matter. OwnShip is assumed to continue in a straight line. The vehicle follows its polynomial predicted track if
+ * there is one, otherwise its current speed and track (i.e. the linear prediction). A vehicle is in conflict if, at
+ * some time within the prediction period, it is inside the danger radius and within gradientMinimumDiff vertically.
+ * The alert is raised and cleared only when the number of vehicles in conflict changes between zero and non-zero.
+ */
+public class ConflictDetector {
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private final Location ownShip = new Location("cpa");
+    // OwnShip is at (0, 0) on the plane
+    private double ownAlt, ownVx, ownVy, cosLat;
+    private int numConflicts;
+    private boolean alerting;
+    // Result of the last call to segment()
+    double cpaDistance, cpaAltDiff;
+    long cpaMillis;
+
+    /**
+     * Recalculate the CPA for a vehicle which has just been updated
+     */
+    public synchronized void update(Vehicle v) {
+        if (!loadOwnShip()) return;
+        check(v);
+        publish();
+    }
+
+    /**
+     * Recalculate the CPA for all vehicles, e.g. after ownShip has moved
+     */
+    public synchronized void updateAll(Iterable<Vehicle> vehicles) {
+        if (!loadOwnShip()) return;
+        for (Vehicle v : vehicles)
+            check(v);
+        publish();
+    }
+
+    /**
+     * Forget a vehicle that has been purged
+     */
+    public synchronized void remove(Vehicle v) {
+        setConflict(v, false);
+        publish();
+    }
+
+    private boolean loadOwnShip() {
+        Gps.getLatLonAltTime(ownShip);
+        if (!ownShip.hasAccuracy()) return false;
+        cosLat = Math.cos(Math.toRadians(ownShip.getLatitude()));
+        ownAlt = ownShip.hasAltitude() ? ownShip.getAltitude() : Double.NaN;
+        double speed = ownShip.hasSpeed() ? ownShip.getSpeed() : 0;
+        double track = ownShip.hasBearing() ? Math.toRadians(ownShip.getBearing()) : 0;
+        ownVx = speed * Math.sin(track);
+        ownVy = speed * Math.cos(track);
+        return true;
+    }
+
+    /**
+     * Set ownShip's altitude and velocity directly, bypassing the GPS. For testing segment()
+     */
+    void setOwnShip(double alt, double vx, double vy) {
+        ownAlt = alt;
+        ownVx = vx;
+        ownVy = vy;
+    }
+
+    private double x(double lon) {
+        return (lon - ownShip.getLongitude()) * cosLat * METRES_PER_DEGREE;
+    }
+
+    private double y(double lat) {
+        return (lat - ownShip.getLatitude()) * METRES_PER_DEGREE;
+    }
+
+    private void check(Vehicle v) {
+        if (v.id == ownId && ownId != 0) return;
+        double bestDistance = Double.NaN, bestAltDiff = Double.NaN;
+        long bestMillis = -1;
+        synchronized (v.lock) {
+            Position p = v.position;
+            if (p == null || !p.hasAccuracy()) {
+                setConflict(v, false);
+                return;
+            }
+            double ax = x(p.getLongitude()), ay = y(p.getLatitude());
+            double aAlt = p.getAltitude();
+            boolean polynomial = showPolynomialPredictionTrack && !v.predicted.isEmpty() && v.predicted.get(0).hasAccuracy();
+            if (polynomial) {
+                // Piecewise linear along the predicted track. Each predicted point is one step after the previous one
+                long ta = 0;
+                for (Position b : v.predicted) {
+                    if (!b.hasAccuracy()) break;
+                    long tb = ta + polynomialPredictionStepMilliS;
+                    if (ta >= predictionMilliS) break;
+                    double bx = x(b.getLongitude()), by = y(b.getLatitude());
+                    double bAlt = b.getAltitude();
+                    double dt = (tb - ta) / 1000.0;
+                    segment(ax, ay, aAlt, (bx - ax) / dt, (by - ay) / dt, (bAlt - aAlt) / dt, ta, tb);
+                    if (bestMillis < 0 || cpaDistance < bestDistance) {
+                        bestDistance = cpaDistance;
+                        bestAltDiff = cpaAltDiff;
+                        bestMillis = cpaMillis;
+                    }
+                    ax = bx;
+                    ay = by;
+                    aAlt = bAlt;
+                    ta = tb;
+                }
+            } else {
+                double speed = p.hasSpeed() ? p.getSpeed() : 0;
+                double track = p.hasTrack() ? Math.toRadians(p.getTrack()) : 0;
+                segment(ax, ay, aAlt, speed * Math.sin(track), speed * Math.cos(track), p.getVVel(), 0, predictionMilliS);
+                bestDistance = cpaDistance;
+                bestAltDiff = cpaAltDiff;
+                bestMillis = cpaMillis;
+            }
+        }
+        v.cpaDistance = (float) bestDistance;
+        v.cpaAltDiff = (float) bestAltDiff;
+        v.cpaMillis = bestMillis;
+        setConflict(v, bestMillis >= 0 && bestDistance < dangerRadiusMetres && Math.abs(bestAltDiff) < gradientMinimumDiff);
+    }
+
+    /**
+     * CPA between ownShip and a vehicle moving in a straight line from (ax, ay, aAlt) at time ta to time tb.
+     * Velocities are in metres per second, times are milliseconds from now.
+     */
+    void segment(double ax, double ay, double aAlt, double vx, double vy, double vz, long ta, long tb) {
+        double t0 = ta / 1000.0;
+        // Relative position and velocity at the start of the segment
+        double rx = ax - ownVx * t0, ry = ay - ownVy * t0;
+        double wx = vx - ownVx, wy = vy - ownVy;
+        double w2 = wx * wx + wy * wy;
+        double t = w2 == 0 ? 0 : -(rx * wx + ry * wy) / w2;
+        t = Math.max(0, Math.min(t, (tb - ta) / 1000.0));
+        double dx = rx + wx * t, dy = ry + wy * t;
+        cpaDistance = Math.sqrt(dx * dx + dy * dy);
+        cpaAltDiff = aAlt + (Double.isNaN(vz) ? 0 : vz * t) - ownAlt;
+        cpaMillis = ta + (long) (t * 1000);
+    }
+
+    private void setConflict(Vehicle v, boolean conflict) {
+        if (v.conflict == conflict) return;
+        v.conflict = conflict;
+        numConflicts += conflict ? 1 : -1;
+        Log.i("%s conflict %s: CPA %.0fm %.0fm in %ds", v.getLabel(), conflict ? "started" : "ended", v.cpaDistance, v.cpaAltDiff, v.cpaMillis / 1000);
+    }
+
+    private void publish() {
+        boolean alert = numConflicts > 0;
+        if (alert == alerting) return;
+        alerting = alert;
+        MainActivity.setAlert(alert);
+    }
+}
@@ -33,9 +33,9 @@ import android.os.IBinder;
 import android.provider.Settings;
 import android.widget.Toast;
 
+import com.meerkat.log.CaptureWriter;
 import com.meerkat.log.Log;
 
-import java.time.Instant;
 
 public class Gps extends Service implements LocationListener {
     public static volatile boolean isEnabled;
@@ -60,6 +60,22 @@ public class Gps extends Service implements LocationListener {
         return NaN;
     }
 
+    /**
+     * Distance and bearing from the current location to a point, without needing a Location for the point
+     *
+     * @param results Receives the distance in metres in [0] and the bearing in [1]; NaN if there is no current location
+     */
+    public static void distanceBearingTo(double lat, double lon, float[] results) {
+        checkEnabled();
+        synchronized (location) {
+            if (location.hasAccuracy()) {
+                Location.distanceBetween(location.getLatitude(), location.getLongitude(), lat, lon, results);
+                return;
+            }
+        }
+        results[0] = results[1] = NaN;
+    }
+
     public static double getAltitude() {
         checkEnabled();
         synchronized (location) {
@@ -158,8 +174,11 @@ public class Gps extends Service implements LocationListener {
             return;
         // Only use phone GPS if it is preferred or if it's been too long since an ADS-B
         // own ship Traffic message has updated it
-        if (preferAdsbPosition && location.getTime() > Instant.now().toEpochMilli() - minGpsUpdateIntervalSeconds * 1000L)
+        if (preferAdsbPosition && location.getTime() > VirtualClock.millis() - minGpsUpdateIntervalSeconds * 1000L)
             return;
+        CaptureWriter capture = MainActivity.capture;
+        if (capture != null)
+            capture.writeGps(location.getTime(), location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getSpeed(), location.getBearing());
         setLocation("GPS", location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getSpeed(), location.getBearing(), location.getTime());
     }
 
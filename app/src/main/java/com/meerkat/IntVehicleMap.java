@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Map from participant address (Vehicle.id) to Vehicle, using open addressing on a primitive int key so that lookups
+ * don't box.
+ * <p>
+ * Vehicles are added when first seen and removed when purged, which is rare compared to lookups, so writes copy the
+ * whole table and publish it through a volatile field. Reads never lock: they see either the old or the new table,
+ * and each table is immutable once published.
+ */
+public class IntVehicleMap {
+    private static final class Table {
+        final int[] keys;
+        // null marks an empty slot
+        final Vehicle[] slots;
+        // The same vehicles, packed, for iteration
+        final Vehicle[] values;
+        final List<Vehicle> list;
+
+        Table(int capacity, int size) {
+            keys = new int[capacity];
+            slots = new Vehicle[capacity];
+            values = new Vehicle[size];
+            list = new AbstractList<>() {
+                @Override
+                public Vehicle get(int index) {
+                    return values[index];
+                }
+
+                @Override
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+    }
+
+    private volatile Table table = new Table(16, 0);
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public Vehicle get(int key) {
+        final Table t = table;
+        final int mask = t.keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Vehicle v = t.slots[i];
+            if (v == null) return null;
+            if (t.keys[i] == key) return v;
+        }
+    }
+
+    public int size() {
+        return table.values.length;
+    }
+
+    public boolean isEmpty() {
+        return table.values.length == 0;
+    }
+
+    /**
+     * @return Read-only snapshot of the vehicles; later changes to the map are not reflected in it
+     */
+    public List<Vehicle> values() {
+        return table.list;
+    }
+
+    public synchronized void put(Vehicle vehicle) {
+        final Table old = table;
+        int n = old.values.length;
+        boolean replace = get(vehicle.id) != null;
+        Vehicle[] values = new Vehicle[replace ? n : n + 1];
+        int j = 0;
+        for (Vehicle v : old.values)
+            if (v.id != vehicle.id) values[j++] = v;
+        values[j] = vehicle;
+        table = rebuild(values);
+    }
+
+    public synchronized void remove(int key) {
+        final Table old = table;
+        if (get(key) == null) return;
+        Vehicle[] values = new Vehicle[old.values.length - 1];
+        int j = 0;
+        for (Vehicle v : old.values)
+            if (v.id != key) values[j++] = v;
+        table = rebuild(values);
+    }
+
+    // Keep the load factor at or below 1/2, so that probe sequences stay short
+    private static Table rebuild(Vehicle[] values) {
+        int capacity = 16;
+        while (capacity < values.length * 2) capacity <<= 1;
+        Table t = new Table(capacity, values.length);
+        System.arraycopy(values, 0, t.values, 0, values.length);
+        final int mask = capacity - 1;
+        for (Vehicle v : values) {
+            int i = slot(v.id, mask);
+            while (t.slots[i] != null) i = (i + 1) & mask;
+            t.keys[i] = v.id;
+            t.slots[i] = v;
+        }
+        return t;
+    }
+}
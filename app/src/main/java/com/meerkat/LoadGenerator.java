@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import android.location.Location;
+
+import com.meerkat.gdl90.Gdl90Encoder;
+import com.meerkat.log.Log;
+import com.meerkat.measure.Units;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Synthetic traffic for load testing. Each target's reports are sent as GDL90 Traffic messages by UDP to PingComms
+ * on this device, so that reception, decoding, the VehicleList and drawing are all exercised as they would be by a
+ * Ping in busy airspace.
+ * <p>
+ * Targets are read from a scenario file if there is one, otherwise they are scattered around ownShip by a seeded
+ * random number generator, so that a run can be repeated. Each target flies at a constant speed, turn rate and climb
+ * rate, and reports once a second. The reports are spread evenly through each second, and all targets are moved by a
+ * single task on the Simulator's scheduler.
+ * <p>
+ * Scenario file lines are: callsign, emitter category, distance (NM), bearing, altitude (ft), speed (knots), track,
+ * turn rate (degrees/s), climb rate (ft/min). Distance and bearing are from ownShip. Lines starting with # are ignored.
+ */
+public class LoadGenerator {
+    private static final Log.Tag log = new Log.Tag("LoadGenerator");
+    private static final int TICKS_PER_SECOND = 10;
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+    // First of the addresses given to the targets
+    private static final int BASE_ADDRESS = 0xf00000;
+    // GDL90 emitter categories to choose from: light, small, large, heavy, rotorcraft, glider, UAV
+    private static final int[] EMITTERS = {1, 1, 1, 2, 3, 5, 7, 9, 14};
+
+    private final Target[] targets;
+    private final DatagramSocket socket;
+    private final DatagramPacket packet;
+    private final Gdl90Encoder encoder = new Gdl90Encoder(64);
+    private ScheduledFuture<?> task;
+    private int tick;
+    private long sent, failed;
+    private long reportSent, reportTime;
+
+    static final class Target {
+        final int address;
+        final String callsign;
+        final int emitter;
+        double lat, lon, altFt;
+        final float speedKnots, turn, climbFpm;
+        float track;
+
+        Target(int address, String callsign, int emitter, double lat, double lon, double altFt, float speedKnots, float track, float turn, float climbFpm) {
+            this.address = address;
+            this.callsign = callsign;
+            this.emitter = emitter;
+            this.lat = lat;
+            this.lon = lon;
+            this.altFt = altFt;
+            this.speedKnots = speedKnots;
+            this.track = track;
+            this.turn = turn;
+            this.climbFpm = climbFpm;
+        }
+
+        void move(double seconds) {
+            double metres = Units.Speed.KNOTS.toMps(speedKnots) * seconds;
+            double t = Math.toRadians(track);
+            lat += metres * Math.cos(t) / METRES_PER_DEGREE;
+            lon += metres * Math.sin(t) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            track = ((track + turn * (float) seconds) % 360 + 360) % 360;
+            altFt = Math.max(0, Math.min(45000, altFt + climbFpm * seconds / 60));
+        }
+    }
+
+    LoadGenerator(Target[] targets, int port) throws IOException {
+        this.targets = targets;
+        socket = new DatagramSocket();
+        packet = new DatagramPacket(encoder.array(), 0, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Start sending traffic to PingComms
+     *
+     * @param scenarioFile Used if it exists
+     * @param count        Number of random targets, if there is no scenario file
+     * @param seed         For the random targets
+     */
+    public static LoadGenerator start(File scenarioFile, int count, long seed, int port) throws IOException {
+        // Place the targets around ownShip, or the simulator's start point if there is no GPS fix yet
+        Location centre = new Location("load");
+        Gps.getLatLonAltTime(centre);
+        if (!centre.hasAccuracy())
+            centre = Simulator.initialPos;
+        Target[] targets = scenarioFile.exists() ?
+                readScenario(scenarioFile, centre.getLatitude(), centre.getLongitude()) :
+                random(count, seed, centre.getLatitude(), centre.getLongitude());
+        LoadGenerator generator = new LoadGenerator(targets, port);
+        generator.start();
+        return generator;
+    }
+
+    static Target[] random(int count, long seed, double lat, double lon) {
+        Random random = new Random(seed);
+        Target[] targets = new Target[count];
+        for (int i = 0; i < count; i++) {
+            // Uniform over a 50NM radius circle
+            double distance = Units.Distance.NM.toM((float) (50 * Math.sqrt(random.nextDouble())));
+            double bearing = random.nextDouble() * 360;
+            float turn = random.nextInt(4) == 0 ? (random.nextBoolean() ? 3 : -3) : 0;
+            float climb = random.nextInt(4) == 0 ? (random.nextInt(41) - 20) * 100 : 0;
+            targets[i] = target(i, String.format("LOAD%04d", i), EMITTERS[random.nextInt(EMITTERS.length)], lat, lon,
+                    distance, bearing, 500 + random.nextInt(395) * 100, 60 + random.nextInt(440),
+                    random.nextInt(360), turn, climb);
+        }
+        return targets;
+    }
+
+    static Target[] readScenario(File file, double lat, double lon) throws IOException {
+        List<Target> targets = new ArrayList<>();
+        try (var reader = new BufferedReader(new FileReader(file))) {
+            String s;
+            while ((s = reader.readLine()) != null) {
+                s = s.trim();
+                if (s.isEmpty() || s.startsWith("#")) continue;
+                String[] f = s.split("\\s*,\\s*");
+                try {
+                    if (f.length != 9) throw new NumberFormatException(f.length + " fields");
+                    targets.add(target(targets.size(), f[0], Integer.parseInt(f[1]), lat, lon,
+                            Units.Distance.NM.toM(Float.parseFloat(f[2])), Double.parseDouble(f[3]),
+                            Double.parseDouble(f[4]), Float.parseFloat(f[5]), Float.parseFloat(f[6]),
+                            Float.parseFloat(f[7]), Float.parseFloat(f[8])));
+                } catch (NumberFormatException ex) {
+                    log.e("Invalid scenario line (%s): %s", ex.getMessage(), s);
+                }
+            }
+        }
+        log.i("Read %d targets from %s", targets.size(), file.getName());
+        return targets.toArray(new Target[0]);
+    }
+
+    private static Target target(int i, String callsign, int emitter, double lat, double lon, double distance, double bearing,
+                                 double altFt, float speedKnots, float track, float turn, float climbFpm) {
+        double b = Math.toRadians(bearing);
+        double tLat = lat + distance * Math.cos(b) / METRES_PER_DEGREE;
+        double tLon = lon + distance * Math.sin(b) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+        return new Target(BASE_ADDRESS + i, callsign, emitter, tLat, tLon, altFt, speedKnots, track, turn, climbFpm);
+    }
+
+    private void start() {
+        log.i("Generating traffic from %d targets", targets.length);
+        reportTime = System.nanoTime();
+        long interval = VirtualClock.toReal(1000 / TICKS_PER_SECOND);
+        task = Simulator.scheduler.scheduleAtFixedRate(this::tick, interval, interval, MILLISECONDS);
+    }
+
+    private void send(Gdl90Encoder frame) {
+        packet.setLength(frame.length());
+        try {
+            socket.send(packet);
+            sent++;
+        } catch (IOException e) {
+            if (failed++ == 0)
+                log.e("Send failed: %s", e.getMessage());
+        }
+    }
+
+    public void stop() {
+        if (task != null)
+            task.cancel(false);
+        socket.close();
+        log.i("Stopped: %d frames sent, %d failed", sent, failed);
+    }
+
+    // Each target is moved and reported on one tick in every TICKS_PER_SECOND
+    private void tick() {
+        int slot = tick++ % TICKS_PER_SECOND;
+        // A Ping sends a heartbeat every second
+        if (slot == 0)
+            send(encoder.clear().heartbeat(true, (int) (VirtualClock.millis() / 1000 % 86400)));
+        for (int i = slot; i < targets.length; i += TICKS_PER_SECOND) {
+            Target t = targets[i];
+            t.move(1);
+            send(encoder.clear().traffic(t.address, t.lat, t.lon, t.altFt, true, t.speedKnots, t.climbFpm, t.track, t.emitter, t.callsign));
+        }
+        long now = System.nanoTime();
+        if (now - reportTime >= 10_000_000_000L) {
+            log.i("%d targets: %.0f frames/s, %d sent, %d failed", targets.length,
+                    (sent - reportSent) * 1e9 / (now - reportTime), sent, failed);
+            reportSent = sent;
+            reportTime = now;
+        }
+    }
+}
@@ -1,69 +1,206 @@
 package com.meerkat;
 
-import static com.meerkat.ui.settings.SettingsViewModel.replaySpeedFactor;
+import static com.meerkat.ui.settings.SettingsViewModel.purgeSeconds;
+import static com.meerkat.ui.settings.SettingsViewModel.replayMaxSpeed;
+import static com.meerkat.ui.settings.SettingsViewModel.replayStartMinutes;
 
+import com.meerkat.gdl90.DuplicateFilter;
+import com.meerkat.gdl90.Gdl90Cursor;
 import com.meerkat.gdl90.Gdl90Message;
 import com.meerkat.gdl90.Traffic;
+import com.meerkat.log.CaptureIndex;
+import com.meerkat.log.CaptureReader;
+import com.meerkat.log.CaptureWriter;
 import com.meerkat.log.Log;
 import com.meerkat.measure.Units;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.time.Clock;
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Replays a binary capture file. A text log file is first converted to a capture file (named by adding .cap to the
+ * log's name), which is reused until the log changes.
+ * <p>
+ * The capture is indexed by time, so replay can jump to any time in it. Replay follows the recorded timing, scaled
+ * by the VirtualClock's rate, or if replayMaxSpeed is set, processes messages as fast as it can and purges the VehicleList
+ * itself as replay time passes.
+ * <p>
+ * Converting and indexing read the whole file, so they are done when the replay thread starts rather than in the
+ * constructor. Replay begins replayStartMinutes after the first message in the capture.
+ */
 public class LogReplay extends Thread {
+    private static final long NO_SEEK = Long.MIN_VALUE;
     private final VehicleList vehicleList;
-    private final BufferedReader logReader;
+    private final File logFile;
+    private CaptureReader reader;
+    private CaptureIndex index;
+    private final boolean maxSpeed = replayMaxSpeed;
+    private final long startOffset = replayStartMinutes * 60000L;
+    private final Gdl90Cursor cursor = new Gdl90Cursor();
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+    private volatile long seekTime = NO_SEEK;
     private long prevTimestamp = 0;
     private long prevRealtime = 0;
+    // Replay time at which the VehicleList is next purged, in maxSpeed mode
+    private long nextPurge = 0;
     static final Pattern timestampPattern = Pattern.compile("^(\\d\\d):(\\d\\d):(\\d\\d\\.\\d+)\\s.*?\\s(GDL90|GPS):?\\s(.*)");
     static final Pattern gpsPattern = Pattern.compile("^\\(([\\-+]?\\d+\\.\\d+),\\s*([\\-+]?\\d+\\.\\d+)\\)\\s*([+\\-]?\\d+)ft,\\s*(\\d+(?:\\.\\d+)?)kts\\s*(\\d+)[!\\s]?$");
 
-    public static Clock clock;
-
-    public LogReplay(VehicleList v, File logFile) throws IOException {
+    public LogReplay(VehicleList v, File logFile) {
         this.vehicleList = v;
-        Log.level(Log.Level.D);
-        Log.i("new LogReplay");
-        logReader = new BufferedReader(new FileReader(logFile));
+        this.logFile = logFile;
+        // Logging every message would be most of the work at full speed
+        if (!maxSpeed)
+            Log.level(Log.Level.D);
+        Log.i("new LogReplay %s", logFile.getName());
+    }
+
+    private void open() throws IOException {
+        File capFile = logFile.getName().endsWith(".cap") ? logFile : convert(logFile);
+        index = CaptureIndex.load(capFile);
+        reader = new CaptureReader(capFile);
+    }
+
+    /**
+     * Continue the replay from a given time. May be called from any thread, before or after the replay is started.
+     * A seek before the replay has started overrides replayStartMinutes.
+     *
+     * @param time epoch ms
+     */
+    public void seek(long time) {
+        seekTime = time;
     }
 
     public void run() {
+        long started = System.nanoTime();
+        long frames = 0;
+        try {
+            open();
+            // The start of the capture isn't known until it has been indexed
+            if (startOffset > 0 && seekTime == NO_SEEK)
+                seekTime = index.getStartTime() + startOffset;
+            while (true) {
+                long target = seekTime;
+                if (target != NO_SEEK) {
+                    seekTime = NO_SEEK;
+                    frames += skipTo(target);
+                }
+                if (!reader.next()) break;
+                replayFrame();
+                frames++;
+                if (maxSpeed)
+                    purgeIfDue();
+                else
+                    pace();
+            }
+            reader.close();
+        } catch (IOException e) {
+            Log.e("Log replay IO Exception: %s", e.getMessage());
+            return;
+        }
+        Log.i("Replayed %d frames in %d ms", frames, (System.nanoTime() - started) / 1000000);
+        // Keep the clock running until all the vehicles have aged out
+        while (!vehicleList.isEmpty()) {
+            Log.i("Log file EOF: VehicleList = %d", vehicleList.size());
+            VirtualClock.advance(1000);
+            if (maxSpeed)
+                purgeIfDue();
+            else
+                pace();
+        }
+        Log.i("Replay finished: %d duplicate frames dropped", duplicateFilter.getDropped());
+    }
+
+    /**
+     * Clear the VehicleList, then rebuild it by replaying the purge period before the given time without pausing
+     *
+     * @return Number of frames replayed
+     */
+    private long skipTo(long time) throws IOException {
+        Log.i("Replay seeking to %s", Instant.ofEpochMilli(time).toString());
+        vehicleList.clear();
+        duplicateFilter.clear();
+        reader.seek(index.position(time - purgeSeconds * 1000L));
+        prevTimestamp = 0;
+        nextPurge = 0;
+        long frames = 0;
+        while (reader.next()) {
+            replayFrame();
+            frames++;
+            if (reader.time() >= time) break;
+        }
+        return frames;
+    }
+
+    private void replayFrame() {
+        VirtualClock.setTime(reader.time());
+        if (reader.source() == CaptureWriter.SOURCE_GPS) {
+            ByteBuffer p = reader.payload();
+            Gps.setLocation("GPS", p.getDouble(), p.getDouble(), p.getDouble(), p.getFloat(), p.getFloat(), reader.time());
+        } else if (reader.source() == CaptureWriter.SOURCE_GDL90) {
+            upsertTraffic(reader.data(), reader.length());
+        }
+    }
+
+    private void upsertTraffic(byte[] raw, int length) {
+        cursor.wrap(raw, 0, length);
+        Gdl90Message msg;
+        while ((msg = Gdl90Message.getMessage(cursor, duplicateFilter)) != null) {
+            if (!(msg instanceof Traffic t)) continue;
+            t.time = VirtualClock.millis();
+            t.upsert(vehicleList);
+        }
+    }
+
+    // The VehicleList's own purge runs in real time, so it doesn't keep up with a replay at full speed
+    private void purgeIfDue() {
+        long now = VirtualClock.millis();
+        if (now < nextPurge) return;
+        if (nextPurge != 0)
+            vehicleList.purge();
+        nextPurge = now + purgeSeconds * 1000L;
+    }
+
+    /**
+     * Convert a text log file to a capture file, unless an up to date one already exists
+     *
+     * @return The capture file
+     */
+    static File convert(File logFile) throws IOException {
+        File capFile = new File(logFile.getPath() + ".cap");
+        if (capFile.exists() && capFile.lastModified() >= logFile.lastModified())
+            return capFile;
+        Log.i("Converting %s to %s", logFile.getName(), capFile.getName());
+        // Write to a temporary file, so that a partly converted log is never mistaken for a good one
+        File tmp = new File(capFile.getPath() + ".tmp");
+        // The log only has the time of day
         var today = Instant.now().truncatedTo(ChronoUnit.DAYS);
-        while (true) {
+        CaptureWriter writer = null;
+        try (var logReader = new BufferedReader(new FileReader(logFile))) {
             String s;
-            try {
-                s = logReader.readLine();
-            } catch (IOException e) {
-                Log.e("Log replay IO Exception: %s", e.getMessage());
-                return;
-            }
-            if (s == null) {
-                Log.i("Log file EOF: VehicleList = %d", vehicleList.size());
-                if (vehicleList.isEmpty()) break;
-                clock = Clock.fixed(Instant.ofEpochMilli(clock.millis() + 1000), ZoneId.systemDefault());
-            } else {
+            while ((s = logReader.readLine()) != null) {
                 Matcher m = timestampPattern.matcher(s);
                 if (!m.matches()) continue;
                 if (m.groupCount() < 5)
                     continue;
 
                 if (m.group(1) == null || m.group(2) == null || m.group(3) == null) continue;
-                clock = Clock.fixed(today.plusMillis(Integer.parseInt(Objects.requireNonNull(m.group(1))) * 3600000L +
+                long time = today.toEpochMilli() + Integer.parseInt(Objects.requireNonNull(m.group(1))) * 3600000L +
                         Integer.parseInt(Objects.requireNonNull(m.group(2))) * 60000L +
-                        (long) Float.parseFloat(Objects.requireNonNull(m.group(3))) * 1000), ZoneId.systemDefault());
+                        (long) (Float.parseFloat(Objects.requireNonNull(m.group(3))) * 1000);
                 var msgType = m.group(4);
                 var data = m.group(5);
                 if (data == null || msgType == null) continue;
+                if (writer == null)
+                    writer = new CaptureWriter(tmp, time);
                 if (msgType.equals("GPS")) {
                     Matcher g = gpsPattern.matcher(data);
                     if (!g.matches()) continue;
@@ -79,53 +216,57 @@ public class LogReplay extends Thread {
                     var trk = g.group(5);
                     if (trk == null) continue;
                     try {
-                        Gps.setLocation("GPS", Double.parseDouble(lat), Double.parseDouble(lon),
+                        writer.writeGps(time, Double.parseDouble(lat), Double.parseDouble(lon),
                                 Units.Height.FT.toM(Double.parseDouble(alt)),
-                                (float) Units.Speed.KNOTS.toMps(Float.parseFloat(spd)), Float.parseFloat(trk),
-                                clock.instant().toEpochMilli());
+                                (float) Units.Speed.KNOTS.toMps(Float.parseFloat(spd)), Float.parseFloat(trk));
                     } catch (NumberFormatException ex) {
                         // do nothing... continue
                     }
                 } else if (msgType.equals("GDL90")) {
-                    // Some datagrams contain 2 messages
-                    if (!data.contains("7e14"))
-                        continue;
                     byte[] raw = new byte[data.length() / 2];
-                    for (int j = 0; j < data.length(); j += 2) {
-                        try {
-                            raw[j / 2] = (byte) Integer.parseInt(data.substring(j, j + 2), 16);
-                        } catch (StringIndexOutOfBoundsException | NumberFormatException ex) {
-                            Log.e("Invalid raw message log entry: %s", data);
-                            break;
-                        }
-                    }
-                    ByteArrayInputStream is = new ByteArrayInputStream(raw);
-                    while (is.available() > 0) {
-                        if ((byte) is.read() != 0x7e) continue;
-                        Gdl90Message msg = Gdl90Message.getMessage(is);
-                        if (!(msg instanceof Traffic t)) continue;
-                        t.point.setTime(clock.millis());
-                        t.upsert(vehicleList);
+                    try {
+                        for (int j = 0; j < raw.length; j++)
+                            raw[j] = (byte) Integer.parseInt(data.substring(j * 2, j * 2 + 2), 16);
+                    } catch (NumberFormatException ex) {
+                        Log.e("Invalid raw message log entry: %s", data);
+                        continue;
                     }
+                    writer.write(CaptureWriter.SOURCE_GDL90, time, raw, 0, raw.length);
                 }
             }
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        if (writer == null) {
+            // Nothing to replay, but an empty capture is still valid
+            writer = new CaptureWriter(tmp, today.toEpochMilli());
+            writer.close();
+        }
+        if (writer.hasFailed() || !tmp.renameTo(capFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Conversion of " + logFile.getName() + " failed");
+        }
+        return capFile;
+    }
 
-            var now = Instant.now().toEpochMilli();
-            var timestamp = clock.millis();
-            long delay = prevTimestamp == 0 ? 0 : Math.min(2000, (timestamp - prevTimestamp) - (now - prevRealtime));
-            prevTimestamp = timestamp;
-            prevRealtime = now;
-            delay /= replaySpeedFactor;
-
-            if (delay > 0) {
-                try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+    // Sleep so that replay follows the recorded timing, scaled by the clock rate
+    private void pace() {
+        var now = Instant.now().toEpochMilli();
+        var timestamp = VirtualClock.millis();
+        long delay = prevTimestamp == 0 ? 0 : Math.min(2000, (timestamp - prevTimestamp) - (now - prevRealtime));
+        prevTimestamp = timestamp;
+        prevRealtime = now;
+        delay /= VirtualClock.getRate();
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
-        Log.i("Replay finished");
     }
 }
 
@@ -3,11 +3,17 @@ package com.meerkat;
 import static android.os.Environment.MEDIA_MOUNTED;
 import static com.meerkat.log.Log.useFileWriter;
 import static com.meerkat.ui.settings.SettingsViewModel.appendLogFile;
+import static com.meerkat.ui.settings.SettingsViewModel.asyncLog;
+import static com.meerkat.ui.settings.SettingsViewModel.captureRawMessages;
 import static com.meerkat.ui.settings.SettingsViewModel.fileLog;
 import static com.meerkat.ui.settings.SettingsViewModel.keepScreenOn;
+import static com.meerkat.ui.settings.SettingsViewModel.loadTest;
+import static com.meerkat.ui.settings.SettingsViewModel.loadTestTargets;
 import static com.meerkat.ui.settings.SettingsViewModel.loadPrefs;
+import static com.meerkat.ui.settings.SettingsViewModel.logCallerTags;
 import static com.meerkat.ui.settings.SettingsViewModel.logReplay;
 import static com.meerkat.ui.settings.SettingsViewModel.port;
+import static com.meerkat.ui.settings.SettingsViewModel.replaySpeedFactor;
 import static com.meerkat.ui.settings.SettingsViewModel.simulate;
 import static com.meerkat.ui.settings.SettingsViewModel.useCupFile;
 import static com.meerkat.ui.settings.SettingsViewModel.wifiName;
@@ -36,12 +42,15 @@ import androidx.navigation.ui.NavigationUI;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.meerkat.databinding.ActivityMainBinding;
+import com.meerkat.log.CaptureWriter;
 import com.meerkat.log.Log;
-import com.meerkat.map.Cup;
+import com.meerkat.map.CupCache;
 import com.meerkat.map.MapView;
+import com.meerkat.map.WaypointIndex;
 import com.meerkat.wifi.PingComms;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 
@@ -53,7 +62,10 @@ public class MainActivity extends AppCompatActivity {
     PingComms pingComms;
     public static VehicleList vehicleList;
     public static MapView mapView;
-    public static ArrayList<Cup> groundLocations;
+    // Set if received messages are being recorded
+    public static volatile CaptureWriter capture;
+    private static LoadGenerator loadGenerator;
+    public static WaypointIndex groundLocations;
     private static Button gpsButton, adsbButton, hdgButton, modecButton, alertButton;
     private static MainActivity instance;
 
@@ -68,9 +80,24 @@ public class MainActivity extends AppCompatActivity {
             File logFile = new File(this.getExternalFilesDir(null), "meerkat.log");
             useFileWriter(logFile, appendLogFile);
         }
+        Log.useAsync(asyncLog ? 1024 : 0);
+        Log.useCallerTags(logCallerTags);
         Log.i("Starting in %s mode", simulate ? "Simulation" : logReplay ? "Log Replay" : "Live");
+        if (logReplay)
+            VirtualClock.useReplay(replaySpeedFactor);
+        else if (simulate)
+            VirtualClock.useAccelerated(replaySpeedFactor);
+        else
+            VirtualClock.useReal();
+        if (captureRawMessages && !simulate && !logReplay && capture == null && Environment.getExternalStorageState().equals(MEDIA_MOUNTED)) {
+            try {
+                capture = new CaptureWriter(new File(this.getExternalFilesDir(null), "meerkat.cap"), System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e("Capture file create failed: %s", e.getMessage());
+            }
+        }
 
-        groundLocations = useCupFile ? Cup.readFile(new File(this.getExternalFilesDir(null), "waypoints.cup")) : new ArrayList<>();
+        groundLocations = useCupFile ? CupCache.load(new File(this.getExternalFilesDir(null), "waypoints.cup")) : new WaypointIndex(new ArrayList<>());
         com.meerkat.databinding.ActivityMainBinding binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         binding.getRoot().setKeepScreenOn(keepScreenOn);
@@ -115,7 +142,11 @@ public class MainActivity extends AppCompatActivity {
 
             if (logReplay) {
                 try {
-                    new LogReplay(vehicleList, new File(this.getExternalFilesDir(null), "meerkat.save.log")).start();
+                    // Prefer a binary capture, which doesn't need converting
+                    File replayFile = new File(this.getExternalFilesDir(null), "meerkat.save.cap");
+                    if (!replayFile.exists())
+                        replayFile = new File(this.getExternalFilesDir(null), "meerkat.save.log");
+                    new LogReplay(vehicleList, replayFile).start();
                 } catch (Exception e) {
                     Log.e("Log replay exception: %s", e.getMessage());
                 }
@@ -129,6 +160,13 @@ public class MainActivity extends AppCompatActivity {
                 }
                 return;
             }
+            if (loadTest) {
+                try {
+                    loadGenerator = LoadGenerator.start(new File(this.getExternalFilesDir(null), "loadtest.csv"), loadTestTargets, 1, port);
+                } catch (IOException e) {
+                    Log.e("Load generator exception: %s", e.getMessage());
+                }
+            }
             firstRun = false;
         }
 
@@ -144,7 +182,12 @@ public class MainActivity extends AppCompatActivity {
 
         if (!(logReplay || simulate)) {
             Log.i("Connecting: %s", wifiName, port);
-            if (wifiName == null) {
+            if (loadTest) {
+                // The generated traffic comes from this device, so the Ping's Wifi isn't needed
+                if (pingComms == null)
+                    pingComms = new PingComms(getApplicationContext(), true);
+                pingComms.start();
+            } else if (wifiName == null) {
                 var navSettings = findViewById(R.id.navigation_settings);
                 navSettings.setPressed(true);
             } else {
@@ -163,6 +206,10 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
         if (compass != null)
             compass.pause();
+        // The app may be killed without onDestroy() being called
+        CaptureWriter capture = MainActivity.capture;
+        if (capture != null)
+            capture.flush();
     }
 
     @Override
@@ -170,10 +217,18 @@ public class MainActivity extends AppCompatActivity {
         Log.i("Destroy");
         if (!isFinishing())
             finish();
+        if (loadGenerator != null) {
+            loadGenerator.stop();
+            loadGenerator = null;
+        }
         if (pingComms != null)
             pingComms.stop();
         if (gps != null)
             gps.pause();
+        if (capture != null) {
+            capture.close();
+            capture = null;
+        }
         Log.close();
         super.onDestroy();
     }
@@ -241,6 +296,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public static void blinkAdsb() {
+        if (instance == null) return;
         instance.runOnUiThread(() -> adsbButton.setPressed(!adsbButton.isPressed()));
     }
 
@@ -12,22 +12,24 @@
  */
 package com.meerkat;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.meerkat.log.Log;
 import com.meerkat.map.VehicleIcon;
 import com.meerkat.measure.Position;
 import com.meerkat.measure.Units;
 
-import java.time.Instant;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 
 public class Simulator {
 
-    private static final Position initialPos = new Position("Sim", -(40 + 4 / 60.0 + 9 / 3600.0), 175 + 22 / 60.0 + 42 / 3600.0,
-            Units.Height.FT.toM(5000f), Units.Speed.KNOTS.toMps(100d), 350f, Units.VertSpeed.FPM.toMps(0f), true, true, Instant.now().toEpochMilli());
+    static final Position initialPos = new Position("Sim", -(40 + 4 / 60.0 + 9 / 3600.0), 175 + 22 / 60.0 + 42 / 3600.0,
+            Units.Height.FT.toM(5000f), Units.Speed.KNOTS.toMps(100d), 350f, Units.VertSpeed.FPM.toMps(0f), true, true, VirtualClock.millis());
     private static VehicleList vehicleList;
+    // Runs every simulated flight, and the LoadGenerator
+    static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
     private int nextActionTime;
     private int actionIndex;
@@ -127,7 +129,9 @@ public class Simulator {
     }
 
     private void start() {
-        thread = Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(this::act, initialDelay, 1, SECONDS);
+        // Each action step is one second of app time
+        thread = scheduler.scheduleAtFixedRate(this::act,
+                VirtualClock.toReal(initialDelay * 1000L), VirtualClock.toReal(1000), MILLISECONDS);
     }
 
     private void act() {
@@ -147,7 +151,7 @@ public class Simulator {
         flight.position.setCrcValid(true);
         flight.position.setSpeed((float) (flight.position.getSpeed() + action.accel));
         flight.position.setTrack((flight.position.getTrack() + action.turn) % 360);
-        flight.position.setTime(LogReplay.clock.millis());
+        flight.position.setTime(VirtualClock.millis());
         if (isGps)
             Gps.setLocation(flight.position);
         else {
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import com.meerkat.log.Log;
+
+/**
+ * Quadratic least-squares fit over a sliding window of samples, giving the same result as PolynomialRegression on the
+ * samples currently in the window.
+ * <p>
+ * Samples are kept in a fixed-size ring, and the sums are updated as each sample is added or expires, so neither
+ * costs more than O(1). The sums are taken relative to a time origin which is moved up to the oldest sample (and the
+ * sums recomputed) whenever it lags further behind than the window is wide, which keeps the x^4 sums small enough to
+ * avoid losing precision. That also discards any rounding error accumulated by subtraction.
+ */
+public class SlidingPolynomialRegression {
+    private final int numSeries, mask;
+    private final long[] xs;
+    private final float[][] ys;
+    // Added to every value of each series, so that a series can be shifted without touching the ring
+    private final double[] offsets;
+    // Index of the oldest sample
+    private int tail;
+    private int N;
+    private long origin;
+    private double xSum, x2Sum, x3Sum, x4Sum;
+    private final double[] ySum, xySum, x2ySum;
+    // Reused by getCoefficients()
+    private final double[][] result;
+
+    public SlidingPolynomialRegression(int capacity, int numSeries) {
+        capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.numSeries = numSeries;
+        mask = capacity - 1;
+        xs = new long[capacity];
+        ys = new float[numSeries][capacity];
+        offsets = new double[numSeries];
+        ySum = new double[numSeries];
+        xySum = new double[numSeries];
+        x2ySum = new double[numSeries];
+        result = new double[numSeries][4];
+    }
+
+    public int size() {
+        return N;
+    }
+
+    /**
+     * @return Time of the newest sample; only valid if size() > 0
+     */
+    public long newestX() {
+        return xs[(tail + N - 1) & mask];
+    }
+
+    public void clear() {
+        N = 0;
+        xSum = x2Sum = x3Sum = x4Sum = 0;
+        for (int i = 0; i < numSeries; i++) {
+            ySum[i] = xySum[i] = x2ySum[i] = 0;
+            offsets[i] = 0;
+        }
+    }
+
+    /**
+     * Add a sample, which must be no older than the newest sample. If the window is full, the oldest sample is dropped.
+     */
+    public void add(long X, float... Y) {
+        if (N == 0) {
+            clear();
+            origin = X;
+        } else if (N == xs.length) {
+            removeOldest();
+        }
+        int i = (tail + N) & mask;
+        xs[i] = X;
+        for (int s = 0; s < numSeries; s++) {
+            if (Float.isNaN(Y[s]))
+                Log.e("NaN in data at %d", s);
+            // Stored relative to the current offset
+            ys[s][i] = (float) (Y[s] - offsets[s]);
+        }
+        N++;
+        accumulate(i, 1);
+        long oldest = xs[tail];
+        if (oldest - origin > Math.max(1000, X - oldest))
+            rebase();
+    }
+
+    /**
+     * Remove all samples older than the given time
+     */
+    public void expireBefore(long minX) {
+        while (N > 0 && xs[tail] < minX)
+            removeOldest();
+        if (N == 0) clear();
+    }
+
+    /**
+     * Add a constant to every value in a series, e.g. to unwind a track by 360 degrees
+     */
+    public void offset(int series, double delta) {
+        offsets[series] += delta;
+        ySum[series] += N * delta;
+        xySum[series] += xSum * delta;
+        x2ySum[series] += x2Sum * delta;
+    }
+
+    private void removeOldest() {
+        accumulate(tail, -1);
+        tail = (tail + 1) & mask;
+        N--;
+    }
+
+    private void accumulate(int i, int sign) {
+        double x = xs[i] - origin;
+        double x2 = x * x;
+        xSum += sign * x;
+        x2Sum += sign * x2;
+        x3Sum += sign * x2 * x;
+        x4Sum += sign * x2 * x2;
+        for (int s = 0; s < numSeries; s++) {
+            double y = sign * (ys[s][i] + offsets[s]);
+            ySum[s] += y;
+            xySum[s] += x * y;
+            x2ySum[s] += x2 * y;
+        }
+    }
+
+    private void rebase() {
+        origin = xs[tail];
+        xSum = x2Sum = x3Sum = x4Sum = 0;
+        for (int s = 0; s < numSeries; s++)
+            ySum[s] = xySum[s] = x2ySum[s] = 0;
+        for (int n = 0; n < N; n++)
+            accumulate((tail + n) & mask, 1);
+    }
+
+    /**
+     * Same as PolynomialRegression.getCoefficients(), with the time origin (element 3) at the oldest sample.
+     *
+     * @return Coefficients for each series; the array is reused by the next call
+     */
+    public double[][] getCoefficients() {
+        if (N == 0) return null;
+        final long first = xs[tail];
+        if (N == 1) {
+            for (int i = 0; i < numSeries; i++) {
+                result[i][0] = ySum[i];
+                result[i][1] = result[i][2] = 0;
+                result[i][3] = first;
+            }
+            return result;
+        }
+        double xm = xSum / N;
+        double x2m = x2Sum / N;
+        double sxxN = (x2Sum - xSum * xm);
+        double sxx2N = (x3Sum - xSum * x2m);
+        double sx2x2N = (x4Sum - x2Sum * x2m);
+        double div = sxxN * sx2x2N - sxx2N * sxx2N;
+        if (div == 0)
+            return null;
+
+        // Coefficients are calculated about the origin, then moved to the oldest sample
+        double d = first - origin;
+        for (int i = 0; i < numSeries; i++) {
+            double ym = ySum[i] / N;
+            double sxyN = (xySum[i] - xSum * ym);
+            double sx2yN = (x2ySum[i] - x2m * ySum[i]);
+            double c1 = (sxyN * sx2x2N - sx2yN * sxx2N) / div;
+            double c2 = N == 2 ? 0 : (sx2yN * sxxN - sxyN * sxx2N) / div;
+            double c0 = ym - c1 * xm - c2 * x2m;
+            result[i][0] = c0 + c1 * d + c2 * d * d;
+            result[i][1] = c1 + 2 * c2 * d;
+            result[i][2] = c2;
+            result[i][3] = first;
+        }
+        return result;
+    }
+}
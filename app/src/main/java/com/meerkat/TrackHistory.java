@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import com.meerkat.measure.Position;
+
+/**
+ * History track of a vehicle, held as parallel primitive arrays in a ring rather than as a list of Position objects.
+ * Adding a point and ageing out old points are O(1). The ring doubles in size when it is full, up to a maximum, so
+ * nothing is allocated once it is big enough for the rate at which points arrive. Beyond the maximum, the oldest point
+ * is overwritten.
+ * <p>
+ * Points are read by index, newest first: index 0 is the most recent point and size()-1 the oldest. Missing values
+ * (altitude, speed, track) are NaN. The caller is responsible for synchronization.
+ */
+public class TrackHistory {
+    private static final byte AIRBORNE = 1;
+    private static final byte CRC_VALID = 2;
+
+    private final int maxCapacity;
+    private int mask;
+    private long[] times;
+    private double[] lats, lons;
+    private float[] alts, speeds, tracks, vVels;
+    private byte[] flags;
+    // Index of the slot the next point will be written to
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity    Initial number of points kept
+     * @param maxCapacity Maximum number of points kept; when full, the oldest point is overwritten
+     */
+    public TrackHistory(int capacity, int maxCapacity) {
+        capacity = roundUp(capacity);
+        this.maxCapacity = Math.max(capacity, roundUp(maxCapacity));
+        mask = capacity - 1;
+        times = new long[capacity];
+        lats = new double[capacity];
+        lons = new double[capacity];
+        alts = new float[capacity];
+        speeds = new float[capacity];
+        tracks = new float[capacity];
+        vVels = new float[capacity];
+        flags = new byte[capacity];
+    }
+
+    // Power of 2, at least 2
+    private static int roundUp(int capacity) {
+        return Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Add a point, which must have a latitude and longitude. It becomes index 0.
+     */
+    public void add(Position p) {
+        if (size > mask && size < maxCapacity) grow();
+        int i = head;
+        times[i] = p.getTime();
+        lats[i] = p.getLatitude();
+        lons[i] = p.getLongitude();
+        alts[i] = (float) p.getAltitude();
+        speeds[i] = p.getSpeed();
+        tracks[i] = p.hasTrack() ? p.getTrack() : Float.NaN;
+        vVels[i] = (float) p.getVVel();
+        flags[i] = (byte) ((p.isAirborne() ? AIRBORNE : 0) | (p.isCrcValid() ? CRC_VALID : 0));
+        head = (i + 1) & mask;
+        if (size <= mask) size++;
+    }
+
+    // Double the capacity of a full ring, moving the oldest point to slot 0
+    private void grow() {
+        int capacity = (mask + 1) * 2;
+        times = (long[]) unwrap(times, new long[capacity]);
+        lats = (double[]) unwrap(lats, new double[capacity]);
+        lons = (double[]) unwrap(lons, new double[capacity]);
+        alts = (float[]) unwrap(alts, new float[capacity]);
+        speeds = (float[]) unwrap(speeds, new float[capacity]);
+        tracks = (float[]) unwrap(tracks, new float[capacity]);
+        vVels = (float[]) unwrap(vVels, new float[capacity]);
+        flags = (byte[]) unwrap(flags, new byte[capacity]);
+        head = mask + 1;
+        mask = capacity - 1;
+    }
+
+    // When the ring is full, head is the oldest slot
+    private Object unwrap(Object src, Object dst) {
+        int n = mask + 1;
+        System.arraycopy(src, head, dst, 0, n - head);
+        System.arraycopy(src, 0, dst, n - head, head);
+        return dst;
+    }
+
+    /**
+     * Remove all points at or before the given time
+     */
+    public void ageOut(long minTime) {
+        while (size > 0 && getTime(size - 1) <= minTime)
+            size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private int slot(int index) {
+        return (head - 1 - index) & mask;
+    }
+
+    public long getTime(int index) {
+        return times[slot(index)];
+    }
+
+    public double getLatitude(int index) {
+        return lats[slot(index)];
+    }
+
+    public double getLongitude(int index) {
+        return lons[slot(index)];
+    }
+
+    public float getAltitude(int index) {
+        return alts[slot(index)];
+    }
+
+    public float getSpeed(int index) {
+        return speeds[slot(index)];
+    }
+
+    public float getTrack(int index) {
+        return tracks[slot(index)];
+    }
+
+    public float getVVel(int index) {
+        return vVels[slot(index)];
+    }
+
+    public boolean isAirborne(int index) {
+        return (flags[slot(index)] & AIRBORNE) != 0;
+    }
+
+    public boolean isCrcValid(int index) {
+        return (flags[slot(index)] & CRC_VALID) != 0;
+    }
+}
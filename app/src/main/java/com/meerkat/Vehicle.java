@@ -29,21 +29,32 @@ import com.meerkat.measure.Position;
 import com.meerkat.measure.Units;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Locale;
 
 public class Vehicle implements Comparable<Vehicle> {
+    private static final Log.Tag log = new Log.Tag("Vehicle");
     public final int id;
     public String callsign;
-    public final LinkedList<Position> history;
+    public final TrackHistory history;
+    // Speed, track & altitude over the last polynomialHistoryMilliS, for polynomial prediction
+    private final SlidingPolynomialRegression regression = new SlidingPolynomialRegression(64, 3);
+    private final float[] sample = new float[3];
+    private float prevTrack = Float.NaN;
     public final ArrayList<Position> predicted;
     public @NonNull
     VehicleIcon.Emitter emitterType;
     public Position position;
     public long lastUpdate;
+    // Time of the last report that was fully processed, i.e. with prediction
+    long lastFullUpdate;
+    // Latest report received within the coalescing window, waiting to be processed
+    private Position pending;
     public final Position predictedPosition;
     public float distance;
+    // Closest point of approach to ownShip, maintained by ConflictDetector
+    public long cpaMillis = -1;
+    public float cpaDistance = Float.NaN, cpaAltDiff = Float.NaN;
+    boolean conflict;
     public final AircraftLayer layer;
     int lastCrc;
     public final Object lock = new Object();
@@ -55,12 +66,15 @@ public class Vehicle implements Comparable<Vehicle> {
     public Vehicle(int crc, int id, String callsign, Position point, @NonNull VehicleIcon.Emitter emitterType) {
         this.lastCrc = crc;
         this.lastUpdate = point.getTime();
+        this.lastFullUpdate = lastUpdate;
         this.id = id;
         this.callsign = callsign;
         this.emitterType = emitterType;
         // History & Predicted go in opposite directions... in each case, the last entry is the furthest away from the current position of the aircraft.
         // So history is in decreasing time order, and predicted is in increasing time order
-        this.history = new LinkedList<>();
+        // Typically a few reports per second, but coalesced reports are also kept in history. The history grows if
+        // reports arrive faster, up to 20 per second, beyond which the oldest points are lost before they age out
+        this.history = new TrackHistory(Math.max(16, historySeconds * 4), Math.max(16, historySeconds * 20));
         // always create predictedPosition for synchronization
         layer = findLayer(this);
         predictedPosition = new Position("predicted");
@@ -73,7 +87,7 @@ public class Vehicle implements Comparable<Vehicle> {
             addPoint(point);
             if (showLinearPredictionTrack) {
                 point.linearPredict(predictionMilliS, predictedPosition);
-                Log.v("Predict from %s to %s", point.toString(), predictedPosition);
+                if (log.isLoggable(Log.Level.V)) log.v("Predict from %s to %s", point.toString(), predictedPosition);
             }
         } else {
             if (!point.hasAltitude())
@@ -99,7 +113,7 @@ public class Vehicle implements Comparable<Vehicle> {
         for (int i = 1; i < MainActivity.mapView.layers.getNumberOfLayers(); i++) {
             AircraftLayer d = (AircraftLayer) MainActivity.mapView.layers.getDrawable(i);
             if (!d.isVisible()) {
-                Log.i("ReUse layer %d was %d", i, MainActivity.mapView.layers.getId(i));
+                log.i("ReUse layer %d was %d", i, MainActivity.mapView.layers.getId(i));
                 synchronized (MainActivity.mapView.layers) {
                     MainActivity.mapView.layers.setId(i, v.id);
                     d.setVisible();
@@ -129,7 +143,7 @@ public class Vehicle implements Comparable<Vehicle> {
     }
 
     public void update(int crc, Position point, String callsign, @NonNull VehicleIcon.Emitter emitterType) {
-        Log.d(String.format("Update %06x, %s, %s, %s", id, callsign, emitterType, point.toString()));
+        if (log.isLoggable(Log.Level.D)) log.d("Update %06x, %s, %s, %s", id, callsign, emitterType, point);
 
         synchronized (layer) {
             this.lastCrc = crc;
@@ -149,59 +163,31 @@ public class Vehicle implements Comparable<Vehicle> {
         if (position != null && !point.hasTrack()) point.setTrack(position.getTrack());
 
         lastUpdate = point.getTime();
+        lastFullUpdate = lastUpdate;
         // Remove aged-out history entries, and add the new point
         final long maxAge = lastUpdate - historySeconds * 1000L;
         synchronized (layer) {
-            Iterator<Position> it = history.descendingIterator();
-            while (it.hasNext()) {
-                var p = it.next();
-                if (p.getTime() > maxAge) break;
-                it.remove();
-            }
+            history.ageOut(maxAge);
         }
 
         if (showLinearPredictionTrack && position != null && position.hasTrack() && position.hasSpeed()) {
             synchronized (layer) {
                 position.linearPredict((int) (lastUpdate - position.getTime() + predictionMilliS), predictedPosition);
-                Log.v("Predict from %s to %s", position, predictedPosition);
+                if (log.isLoggable(Log.Level.V)) log.v("Predict from %s to %s", position, predictedPosition);
             }
         }
 
-        if (showPolynomialPredictionTrack && !history.isEmpty()) {
-            // Only reading history, so need to synchronize
-            PolynomialRegression prSpeedTrack = new PolynomialRegression(history.getLast().getTime(), 3);
-            // History only contains valid points, which all have a track value
-            float prevTrack = Float.NaN;
-            long prevTime = -1;
-            synchronized (lock) {
-                Iterator<Position> it = history.descendingIterator();
-                while (it.hasNext()) {
-                    var p = it.next();
-                    var time = p.getTime();
-                    if (!point.hasSpeed() || time <= prevTime) continue;
-                    if (time < position.getTime() - polynomialHistoryMilliS) {
-                        prevTrack = p.getTrack();
-                        continue;
-                    }
-                    var speed = p.getSpeed();
-                    var track = p.getTrack();
-                    if (!p.hasAltitude() || speed == 0 || Float.isNaN(speed))
-                        continue;
-                    // Unwind modulo arithmetic so that turns in the same direction keep incrementing, even though the result is > 360 or < 0
-                    while (track < prevTrack - 180) track += 360;
-                    while (track > prevTrack + 180) track -= 360;
-                    Log.v("Add %d %5.0f %5.0f %5.0f", time - position.getTime(), speed, track, p.getAltitude());
-                    prSpeedTrack.add(time, speed, track, (float) p.getAltitude());
-                    prevTrack = track;
-                    prevTime = time;
-                }
-            }
-            double[][] cSpeedTrack = prSpeedTrack.getCoefficients();
+        if (showPolynomialPredictionTrack && position != null && point.hasSpeed()) {
+            // Samples were added to the regression as points were added to history
+            regression.expireBefore(position.getTime() - polynomialHistoryMilliS);
+            double[][] cSpeedTrack = regression.getCoefficients();
             synchronized (lock) {
                 if (cSpeedTrack != null) {
-                    Log.v("Speed coeffs %.1f %.3f %.5f %d", cSpeedTrack[0][0], cSpeedTrack[0][1], cSpeedTrack[0][2], (long) cSpeedTrack[0][3] - lastUpdate);
-                    Log.v("Track coeffs %.1f %.3f %.5f", cSpeedTrack[1][0], cSpeedTrack[1][1], cSpeedTrack[1][2]);
-                    Log.v("Alt   coeffs %.1f %.3f %.5f", cSpeedTrack[2][0], cSpeedTrack[2][1], cSpeedTrack[2][2]);
+                    if (log.isLoggable(Log.Level.V)) {
+                        log.v("Speed coeffs %.1f %.3f %.5f %d", cSpeedTrack[0][0], cSpeedTrack[0][1], cSpeedTrack[0][2], (long) cSpeedTrack[0][3] - lastUpdate);
+                        log.v("Track coeffs %.1f %.3f %.5f", cSpeedTrack[1][0], cSpeedTrack[1][1], cSpeedTrack[1][2]);
+                        log.v("Alt   coeffs %.1f %.3f %.5f", cSpeedTrack[2][0], cSpeedTrack[2][1], cSpeedTrack[2][2]);
+                    }
                     Position p = position;
                     for (int i = 0; i <= predicted.size() - 1; i++) {
                         var speed = p.getSpeed();
@@ -222,7 +208,7 @@ public class Vehicle implements Comparable<Vehicle> {
                         p.setSpeed(Float.isNaN(newSpeed) ? speed : Float.isNaN(speed) ? newSpeed : 0.5f * speed + 0.5f * newSpeed);
                         p.setTrack((Float.isNaN(newTrack) ? track : Float.isNaN(track) ? newTrack : 0.9f * track + 0.1f * newTrack) % 360);
                         p.setTime(position.getTime() + (long) i * polynomialPredictionStepMilliS);
-                        Log.v("%s Predict Speed %.1f Track %.1f Alt %.1f %s", callsign, newSpeed, newTrack, alt, p);
+                        if (log.isLoggable(Log.Level.V)) log.v("%s Predict Speed %.1f Track %.1f Alt %.1f %s", callsign, newSpeed, newTrack, alt, p);
                     }
                 }
             }
@@ -230,10 +216,77 @@ public class Vehicle implements Comparable<Vehicle> {
         MainActivity.mapView.refresh(layer);
     }
 
+    /**
+     * Hold a report that arrived within the coalescing window of the last full update, instead of processing it now.
+     * The report it supersedes, if any, is added to history without prediction.
+     */
+    synchronized void defer(int crc, Position point, String callsign, @NonNull VehicleIcon.Emitter emitterType) {
+        this.lastCrc = crc;
+        if (emitterType != VehicleIcon.Emitter.Unknown)
+            this.emitterType = emitterType;
+        if (callsign != null && !callsign.equals(this.callsign))
+            this.callsign = callsign;
+        addHistory(pending);
+        pending = point;
+        lastUpdate = point.getTime();
+    }
+
+    /**
+     * @return The deferred report, if any, which is no longer pending
+     */
+    synchronized Position takePending() {
+        Position result = pending;
+        pending = null;
+        return result;
+    }
+
+    /**
+     * Add a superseded report to the history track, without updating the current position or prediction
+     */
+    void addHistory(Position point) {
+        if (point == null || !point.hasAccuracy()) return;
+        synchronized (layer) {
+            history.add(point);
+        }
+        addSample(point);
+    }
+
     private void addPoint(Position point) {
         position = point;
         distance = Gps.distanceTo(point); // metres
-        history.addFirst(point);
+        if (point.hasAccuracy()) {
+            history.add(point);
+            addSample(point);
+        }
+    }
+
+    // Add a history point to the regression used for polynomial prediction
+    private void addSample(Position p) {
+        if (!showPolynomialPredictionTrack) return;
+        var time = p.getTime();
+        regression.expireBefore(time - polynomialHistoryMilliS);
+        if (regression.size() > 0 && time <= regression.newestX()) return;
+        var speed = p.getSpeed();
+        var track = p.getTrack();
+        var alt = (float) p.getAltitude();
+        if (Float.isNaN(alt) || speed == 0 || Float.isNaN(speed))
+            return;
+        if (regression.size() == 0) prevTrack = Float.NaN;
+        // Unwind modulo arithmetic so that turns in the same direction keep incrementing, even though the result is > 360 or < 0
+        while (track < prevTrack - 180) track += 360;
+        while (track > prevTrack + 180) track -= 360;
+        if (log.isLoggable(Log.Level.V)) log.v("Add %d %5.0f %5.0f %5.0f", time - lastUpdate, speed, track, alt);
+        sample[0] = speed;
+        sample[1] = track;
+        sample[2] = alt;
+        regression.add(time, sample);
+        // Keep the newest track within 0..360, so that predictions blend with the current track
+        if (track >= 360 || track < 0) {
+            float shift = track >= 360 ? -360 : 360;
+            regression.offset(1, shift);
+            track += shift;
+        }
+        prevTrack = track;
     }
 
     public boolean isValid() {
@@ -13,13 +13,12 @@
 package com.meerkat;
 
 import static com.meerkat.ui.settings.SettingsViewModel.autoZoom;
-import static com.meerkat.ui.settings.SettingsViewModel.dangerRadiusMetres;
+import static com.meerkat.ui.settings.SettingsViewModel.coalesceMillis;
 import static com.meerkat.ui.settings.SettingsViewModel.logReplay;
 import static com.meerkat.ui.settings.SettingsViewModel.ownId;
 import static com.meerkat.ui.settings.SettingsViewModel.preferAdsbPosition;
 import static com.meerkat.ui.settings.SettingsViewModel.purgeSeconds;
-import static com.meerkat.ui.settings.SettingsViewModel.replaySpeedFactor;
-import static com.meerkat.ui.settings.SettingsViewModel.simulate;
+import static com.meerkat.ui.settings.SettingsViewModel.replayMaxSpeed;
 import static java.lang.Double.MAX_VALUE;
 import static java.lang.Double.isNaN;
 
@@ -29,76 +28,125 @@ import com.meerkat.log.Log;
 import com.meerkat.map.AircraftLayer;
 import com.meerkat.map.VehicleIcon;
 import com.meerkat.measure.Position;
-import com.meerkat.ui.settings.SettingsViewModel;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-public class VehicleList extends HashMap<Integer, Vehicle> {
-    public Vehicle nearest = null;
-    public Vehicle furthest = null;
+public class VehicleList {
+    private static final Log.Tag log = new Log.Tag("VehicleList");
+    private final IntVehicleMap vehicles = new IntVehicleMap();
+    private final ConflictDetector conflicts = new ConflictDetector();
+    public volatile Vehicle nearest = null;
+    public volatile Vehicle furthest = null;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
     private final ScheduledFuture sched;
+    private final ScheduledFuture flushSched;
 
-    private void purge() {
+    // Also called by LogReplay, which purges by replay time when replaying at full speed
+    synchronized void purge() {
         try {
-            if (this.isEmpty()) return;
-            long purgeTime = (logReplay || simulate ? LogReplay.clock.millis() : Instant.now().toEpochMilli()) - purgeSeconds * 1000L;
-            Log.i("Locking vehicleList to purge all last updated before %s", Instant.ofEpochMilli(purgeTime).toString());
+            if (vehicles.isEmpty()) return;
+            long purgeTime = VirtualClock.millis() - purgeSeconds * 1000L;
+            log.i("Purging vehicleList of all last updated before %s", Instant.ofEpochMilli(purgeTime).toString());
             var changeBackground = false;
             var modeCAlt = MAX_VALUE;
-            synchronized (this) {
-                Iterator<HashMap.Entry<Integer, Vehicle>> iterator = this.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    HashMap.Entry<Integer, Vehicle> entry = iterator.next();
-                    Vehicle v = entry.getValue();
-                    Log.v("Waiting for %s", v.toString());
-                    synchronized (v.lock) {
-                        if (v.lastUpdate < purgeTime) {
-                            iterator.remove();
-                            Log.i("Purged %s", v.toString());
-                            v.layer.setVisible(false, false);
-                            MainActivity.mapView.layers.invalidateDrawable(v.layer);
-                            continue;
-                        }
-                        if (v.position != null)
-                            if (v.position.hasAccuracy()) {
-                                // NB side-effect to store nearest & furthest -- both must be executed
-                                changeBackground |= checkAndMakeNearest(v);
-                                changeBackground |= checkAndMakeFurthest(v);
-                            } else if (v.position.hasAltitude()) {
-                                if (Math.abs(v.position.heightAboveOwnship()) < Math.abs(modeCAlt))
-                                    modeCAlt = v.position.heightAboveOwnship();
-                            }
-                        Log.v("Exited %s", v.toString());
+            // ConflictDetector locks itself before the vehicle, so purged vehicles are removed from it after v.lock is released
+            var purged = new ArrayList<Vehicle>();
+            // Iterating over a snapshot, so removals don't disturb the loop
+            for (Vehicle v : vehicles.values()) {
+                if (log.isLoggable(Log.Level.V)) log.v("Waiting for %s", v.toString());
+                synchronized (v.lock) {
+                    if (v.lastUpdate < purgeTime) {
+                        vehicles.remove(v.id);
+                        purged.add(v);
+                        log.i("Purged %s", v.toString());
+                        v.layer.setVisible(false, false);
+                        MainActivity.mapView.refresh(v.layer);
+                        continue;
                     }
+                    if (v.position != null)
+                        if (v.position.hasAccuracy()) {
+                            // NB side-effect to store nearest & furthest -- both must be executed
+                            changeBackground |= checkAndMakeNearest(v);
+                            changeBackground |= checkAndMakeFurthest(v);
+                        } else if (v.position.hasAltitude()) {
+                            if (Math.abs(v.position.heightAboveOwnship()) < Math.abs(modeCAlt))
+                                modeCAlt = v.position.heightAboveOwnship();
+                        }
+                    if (log.isLoggable(Log.Level.V)) log.v("Exited %s", v.toString());
                 }
             }
-            Log.i("Purge complete");
+            for (Vehicle v : purged)
+                conflicts.remove(v);
+            log.i("Purge complete");
             if (changeBackground) MainActivity.mapView.refresh(null);
             // If no Mode-C traffic found, set button colour to transparent to show toolbar colour
             MainActivity.setModeC(modeCAlt == MAX_VALUE ? Color.alpha(0) : AircraftLayer.altColour(modeCAlt, true));
-            MainActivity.setAlert(nearest.distance < dangerRadiusMetres &&
-                    Math.abs(nearest.position.heightAboveOwnship()) < SettingsViewModel.gradientMinimumDiff);
+            // OwnShip has moved since the vehicles were last checked
+            conflicts.updateAll(vehicles.values());
         } catch (Exception ex) {
-            Log.e("Exception in VehicleList purge %s", ex.getMessage());
+            log.e("Exception in VehicleList purge %s", ex.getMessage());
         }
     }
 
     public VehicleList() {
-        super();
-        var interval = logReplay || simulate ? Math.round(purgeSeconds * 1000f / replaySpeedFactor) : purgeSeconds * 1000;
-        Log.i("Purge at %d millisecond intervals", interval);
-        sched = Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(this::purge, interval, interval, TimeUnit.MILLISECONDS);
+        if (logReplay && replayMaxSpeed) {
+            sched = null;
+        } else {
+            var interval = VirtualClock.toReal(purgeSeconds * 1000L);
+            log.i("Purge at %d millisecond intervals", interval);
+            sched = executor.scheduleAtFixedRate(this::purge, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        // Reports held back by coalescing are processed at least once per window
+        var flushInterval = Math.max(50, VirtualClock.toReal(coalesceMillis));
+        flushSched = executor.scheduleAtFixedRate(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
-        sched.cancel(true);
-        Log.i("VehicleList purge cancelled");
+        if (sched != null)
+            sched.cancel(true);
+        flushSched.cancel(true);
+        log.i("VehicleList purge cancelled");
+    }
+
+    /**
+     * Remove all vehicles, e.g. when a replay jumps to a different time
+     */
+    synchronized void clear() {
+        var removed = vehicles.values();
+        for (Vehicle v : removed) {
+            synchronized (v.lock) {
+                vehicles.remove(v.id);
+                v.layer.setVisible(false, false);
+            }
+        }
+        // As in purge(), the detector is updated outside v.lock
+        for (Vehicle v : removed)
+            conflicts.remove(v);
+        nearest = null;
+        furthest = null;
+        MainActivity.mapView.refresh(null);
+    }
+
+    private void flush() {
+        try {
+            for (Vehicle v : vehicles.values()) {
+                Position point;
+                synchronized (v) {
+                    point = v.takePending();
+                    if (point == null) continue;
+                    v.update(v.lastCrc, point, v.callsign, v.emitterType);
+                }
+                updated(v, point);
+            }
+        } catch (Exception ex) {
+            log.e("Exception in VehicleList flush %s", ex.getMessage());
+        }
     }
 
     private boolean checkAndMakeNearest(Vehicle v) {
@@ -112,13 +160,13 @@ public class VehicleList extends HashMap<Integer, Vehicle> {
                     nearest = null;
                 }
                 // This is nearest and has received an update, so assume relative positions have changed
-                Log.v("Nearest: %s %.0f %s vs %.0f", v.toString(), v.distance, v.position == null ? "null" : v.position.isAirborne(), nearest == null ? Float.NaN : nearest.distance);
+                if (log.isLoggable(Log.Level.V)) log.v("Nearest: %s %.0f %s vs %.0f", v.toString(), v.distance, v.position == null ? "null" : v.position.isAirborne(), nearest == null ? Float.NaN : nearest.distance);
                 return true;
             }
             return false;
         }
         if (v.id == ownId && ownId != 0) return false;
-        Log.v("Nearest: %s %.0f %s vs %.0f", this.toString(), v.distance, v.position == null ? "null" : v.position.isAirborne(), nearest == null ? Float.NaN : nearest.distance);
+        if (log.isLoggable(Log.Level.V)) log.v("Nearest: %s %.0f %s vs %.0f", this.toString(), v.distance, v.position == null ? "null" : v.position.isAirborne(), nearest == null ? Float.NaN : nearest.distance);
         // Change to threat circle needed
         nearest = v;
         return true;
@@ -129,48 +177,77 @@ public class VehicleList extends HashMap<Integer, Vehicle> {
         if (furthest != null) {
             if (furthest == v || v.distance < furthest.distance) return false;
         }
-        Log.v("Furthest: %s %.0f %s vs %.0f", v.callsign, v.distance, v.position == null ? "null" : v.position.isAirborne(), furthest == null ? Float.NaN : furthest.distance);
+        if (log.isLoggable(Log.Level.V)) log.v("Furthest: %s %.0f %s vs %.0f", v.callsign, v.distance, v.position == null ? "null" : v.position.isAirborne(), furthest == null ? Float.NaN : furthest.distance);
         // Change to zoom level needed
         furthest = v;
         return true;
     }
 
+    /**
+     * Ping often sends the same message several times... allows duplicates to be discarded before a Position is built
+     */
+    public boolean isDuplicate(int participantAddr, int crc) {
+        Vehicle v = vehicles.get(participantAddr);
+        return v != null && v.lastCrc == crc;
+    }
+
     public void upsert(int crc, String callsign, int participantAddr, Position point, VehicleIcon.Emitter emitterType) {
-        Vehicle v = get(participantAddr);
+        Vehicle v = vehicles.get(participantAddr);
         if (v != null) {
             // Ping often sends the same message several times... throw away the duplicates
             if (v.lastCrc == crc) return;
-            v.update(crc, point, callsign, emitterType);
+            // Within the coalescing window, just keep the latest report; flush() processes it if nothing newer arrives
+            if (coalesceMillis > 0 && point.getTime() - v.lastFullUpdate < coalesceMillis) {
+                v.defer(crc, point, callsign, emitterType);
+                return;
+            }
+            // Vehicle is also updated by flush()
+            synchronized (v) {
+                v.addHistory(v.takePending());
+                v.update(crc, point, callsign, emitterType);
+            }
         } else {
             v = new Vehicle(crc, participantAddr, callsign, point, emitterType);
-            synchronized (this) {
-                put(participantAddr, v);
-            }
+            vehicles.put(v);
         }
+        updated(v, point);
+    }
+
+    private void updated(Vehicle v, Position point) {
         if (isNaN(v.distance) || v.position == null) return;
-        if (preferAdsbPosition && participantAddr == ownId)
+        if (preferAdsbPosition && v.id == ownId)
             Gps.setLocation(point);
         // NB side-effect to store nearest & furthest -- both must be executed
         var backgroundChanged = checkAndMakeNearest(v);
         backgroundChanged |= checkAndMakeFurthest(v);
         MainActivity.mapView.refresh(backgroundChanged ? null : v.layer);
+        conflicts.update(v);
+    }
+
+    public Vehicle get(int participantAddr) {
+        return vehicles.get(participantAddr);
     }
 
+    public int size() {
+        return vehicles.size();
+    }
+
+    public boolean isEmpty() {
+        return vehicles.isEmpty();
+    }
+
+    /**
+     * @return Snapshot of the current vehicles, which can be iterated without locking
+     */
     public Collection<Vehicle> getVehicles() {
-        synchronized (this) {
-            return values();
-        }
+        return vehicles.values();
     }
 
     public Vehicle getNearest() {
-        synchronized (this) {
-            return nearest;
-        }
+        return nearest;
     }
 
     public Vehicle getFurthest() {
-        synchronized (this) {
-            return furthest;
-        }
+        return furthest;
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import com.meerkat.log.Log;
+
+import java.time.Instant;
+
+/**
+ * The app's notion of the current time, which every time-dependent calculation should use instead of the system clock.
+ * <ul>
+ * <li>REAL: the system clock</li>
+ * <li>REPLAY: the time of the message being replayed, set by LogReplay</li>
+ * <li>ACCELERATED: runs continuously at a multiple of real time, e.g. for simulation</li>
+ * <li>STEPPED: only changes when set or advanced, e.g. for tests</li>
+ * </ul>
+ * The rate is how fast the clock runs compared with real time. Timers which should fire at intervals of app time,
+ * such as VehicleList's purge, convert their intervals with toReal().
+ */
+public final class VirtualClock {
+    public enum Mode {REAL, REPLAY, ACCELERATED, STEPPED}
+
+    private static final class State {
+        final Mode mode;
+        final float rate;
+        // ACCELERATED: app time at baseNanos
+        final long baseMillis;
+        final long baseNanos;
+
+        State(Mode mode, float rate, long baseMillis) {
+            this.mode = mode;
+            this.rate = rate;
+            this.baseMillis = baseMillis;
+            this.baseNanos = System.nanoTime();
+        }
+    }
+
+    // Replaced as a whole, so that readers never see half of a mode change
+    private static volatile State state = new State(Mode.REAL, 1, 0);
+    // REPLAY and STEPPED: current time, epoch ms
+    private static volatile long time;
+
+    private VirtualClock() {
+    }
+
+    /**
+     * @return Current app time, epoch ms
+     */
+    public static long millis() {
+        State s = state;
+        return switch (s.mode) {
+            case REAL -> System.currentTimeMillis();
+            case ACCELERATED -> s.baseMillis + (long) ((System.nanoTime() - s.baseNanos) / 1e6 * s.rate);
+            case REPLAY, STEPPED -> time;
+        };
+    }
+
+    public static Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    public static Mode getMode() {
+        return state.mode;
+    }
+
+    public static float getRate() {
+        return state.rate;
+    }
+
+    /**
+     * @param millis Interval of app time
+     * @return Equivalent interval of real time, at least 1ms
+     */
+    public static long toReal(long millis) {
+        return Math.max(1, Math.round(millis / (double) state.rate));
+    }
+
+    public static void useReal() {
+        set(Mode.REAL, 1, 0);
+    }
+
+    /**
+     * Time is set by the replay, starting at the current time until the first message is replayed
+     *
+     * @param rate Nominal replay speed
+     */
+    public static void useReplay(float rate) {
+        set(Mode.REPLAY, rate, System.currentTimeMillis());
+    }
+
+    /**
+     * Run continuously from the current time
+     *
+     * @param rate Multiple of real time
+     */
+    public static void useAccelerated(float rate) {
+        set(Mode.ACCELERATED, rate, System.currentTimeMillis());
+    }
+
+    /**
+     * @param start Initial time, epoch ms
+     */
+    public static void useStepped(long start) {
+        set(Mode.STEPPED, 1, start);
+    }
+
+    private static void set(Mode mode, float rate, long start) {
+        if (!(rate > 0)) throw new IllegalArgumentException("Clock rate must be positive: " + rate);
+        time = start;
+        state = new State(mode, rate, start);
+        Log.i("Clock mode %s, rate %.1f", mode, rate);
+    }
+
+    /**
+     * Set the time in REPLAY or STEPPED mode. Should only be called from one thread.
+     *
+     * @param millis epoch ms
+     */
+    public static void setTime(long millis) {
+        time = millis;
+    }
+
+    /**
+     * Move the time on in REPLAY or STEPPED mode. Should only be called from one thread.
+     */
+    public static void advance(long millis) {
+        time += millis;
+    }
+}
@@ -13,7 +13,6 @@
 package com.meerkat.gdl90;
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -23,8 +22,8 @@ public class Barometer extends Gdl90Message {
     private final double pressMBar;
     private final double sensorTemp;
 
-    public Barometer(ByteArrayInputStream is) throws UnsupportedEncodingException {
-        super(is, 10, (byte) 40);
+    public Barometer(Gdl90Cursor cursor) throws UnsupportedEncodingException {
+        super(cursor, 10, (byte) 40);
         sensorType = (byte) getByte();
         long p = getInt();
         pressMBar = p == 0xffffffff ? Double.NaN : p /100.0;
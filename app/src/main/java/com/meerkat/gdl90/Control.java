@@ -14,7 +14,6 @@ package com.meerkat.gdl90;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -28,8 +27,8 @@ public class Control extends Gdl90Message {
     final private String callsign;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
-    public Control(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 10, (byte) 45);
+    public Control(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 10, (byte) 45);
         msgVersion = (byte) getByte();
         byte b = (byte) getByte();
         tx1090ES = (b & 0x80) != 0;
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.gdl90;
+
+import static com.meerkat.ui.settings.SettingsViewModel.ownId;
+
+import com.meerkat.VirtualClock;
+
+import java.util.Arrays;
+
+/**
+ * The Ping repeats identical Traffic frames. This remembers the last CRC seen for each participant address, so that
+ * repeats can be dropped straight after framing, before the message is decoded.
+ * <p>
+ * An entry expires EXPIRY_MILLIS after its frame was first seen, after which one repeat is decoded as normal (and then
+ * discarded by VehicleList, unless it has purged the vehicle). So a target that keeps sending the same frame, e.g. one
+ * parked on the ground, reappears soon after being purged. Ownship reports are never dropped, as they update the GPS
+ * position.
+ * <p>
+ * The table is a small direct-mapped cache: if two addresses collide, the older entry is forgotten and its next
+ * repeat is decoded as normal (and then discarded by VehicleList).
+ * Only one thread may call isDuplicate() at a time; getDropped() may be called from any thread.
+ */
+public class DuplicateFilter {
+    static final long EXPIRY_MILLIS = 1000;
+    private static final int TABLE_SIZE = 512; // power of 2
+    private final int[] addrs = new int[TABLE_SIZE];
+    private final int[] crcs = new int[TABLE_SIZE];
+    private final long[] times = new long[TABLE_SIZE];
+    private final boolean[] used = new boolean[TABLE_SIZE];
+    private volatile long dropped;
+
+    /**
+     * @param cursor Cursor positioned at the start of a frame, i.e. before the message ID has been read
+     * @return true if the frame is a Traffic report identical to a recent one from the same participant
+     */
+    public boolean isDuplicate(Gdl90Cursor cursor) {
+        return isDuplicate(cursor, VirtualClock.millis());
+    }
+
+    /**
+     * @param now epoch ms
+     */
+    boolean isDuplicate(Gdl90Cursor cursor, long now) {
+        int messageId = cursor.peek(0);
+        if (messageId != 20 || !cursor.crcValid() || cursor.available() < 7)
+            return false;
+        // Same address calculation as Traffic.decode()
+        int addrTypeNum = Math.min(cursor.peek(1) & 0x0f, 6);
+        int addr = (addrTypeNum << 24) + (cursor.peek(2) << 16) + (cursor.peek(3) << 8) + cursor.peek(4);
+        if (addr == ownId) return false;
+        int crc = cursor.crc();
+        int i = (addr * 0x9e3779b9) >>> (32 - Integer.numberOfTrailingZeros(TABLE_SIZE));
+        if (used[i] && addrs[i] == addr && crcs[i] == crc && now - times[i] < EXPIRY_MILLIS) {
+            //noinspection NonAtomicOperationOnVolatileField -- single writer
+            dropped++;
+            return true;
+        }
+        used[i] = true;
+        addrs[i] = addr;
+        crcs[i] = crc;
+        times[i] = now;
+        return false;
+    }
+
+    /**
+     * @return Number of frames dropped as duplicates
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Forget all entries, e.g. when replay jumps to a different time. Must be called from the thread that calls
+     * isDuplicate().
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+    }
+}
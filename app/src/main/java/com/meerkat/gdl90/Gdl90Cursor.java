@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.gdl90;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoding cursor over a buffer of received GDL90 data, which may hold several messages.
+ * <p>
+ * nextFrame() extracts the next flag-delimited frame, removing 0x7d escapes and computing the CRC in a single pass
+ * into a reusable array. Message fields are then read from that array. Nothing is allocated per datagram or per
+ * frame, so one cursor should be kept per receiving thread and re-wrapped around each datagram.
+ */
+public final class Gdl90Cursor {
+    static final int FLAG = 0x7e;
+    static final int ESCAPE = 0x7d;
+    // Longer than any GDL90 message, including uplink data
+    static final int MAX_FRAME_SIZE = 1024;
+
+    static final int[] Crc16Table = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bitNum = 0; bitNum < 8; bitNum++) {
+                crc = ((crc << 1) ^ ((crc & 0x8000) != 0 ? 0x1021 : 0)) & 0xffff;
+            }
+            Crc16Table[i] = crc;
+        }
+    }
+
+    // Source, either an array or a (possibly direct) ByteBuffer
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int srcPos, srcLimit;
+
+    // Current frame: message ID, payload, and 2 CRC bytes, with escapes removed
+    private final byte[] frame = new byte[MAX_FRAME_SIZE];
+    private int length, pos;
+    private int crc;
+    private boolean crcValid;
+
+    // Reusable record for Traffic reports decoded from this cursor
+    final Traffic traffic = new Traffic();
+
+    public Gdl90Cursor wrap(byte[] data) {
+        return wrap(data, 0, data.length);
+    }
+
+    public Gdl90Cursor wrap(byte[] data, int offset, int len) {
+        array = data;
+        buffer = null;
+        srcPos = offset;
+        srcLimit = offset + len;
+        length = pos = 0;
+        return this;
+    }
+
+    /**
+     * Decode the bytes between the buffer's position and limit. The buffer's position is not changed.
+     */
+    public Gdl90Cursor wrap(ByteBuffer data) {
+        if (data.hasArray())
+            return wrap(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        array = null;
+        buffer = data;
+        srcPos = data.position();
+        srcLimit = data.limit();
+        length = pos = 0;
+        return this;
+    }
+
+    /**
+     * Advance to the next frame in the source. Leading flag bytes are skipped; the frame ends at the next flag, or
+     * at the end of the source.
+     *
+     * @return false if there are no more frames
+     */
+    public boolean nextFrame() {
+        final byte[] src = array, dst = frame;
+        final ByteBuffer buf = buffer;
+        int p = srcPos, n = 0, c = 0;
+        boolean escaped = false;
+        while (p < srcLimit) {
+            int b = (src != null ? src[p++] : buf.get(p++)) & 0xff;
+            if (b == FLAG) {
+                if (n == 0) continue;
+                break;
+            }
+            if (b == ESCAPE) {
+                escaped = true;
+                continue;
+            }
+            if (escaped) {
+                b ^= 0x20;
+                escaped = false;
+            }
+            if (n == dst.length) {
+                // Overlong frame... discard it and resynchronise on the next flag
+                n = 0;
+                c = 0;
+                while (p < srcLimit && (src != null ? src[p] : buf.get(p)) != FLAG) p++;
+                continue;
+            }
+            // The last 2 bytes are the CRC itself, so the CRC runs 2 bytes behind
+            if (n >= 2)
+                c = (Crc16Table[c >> 8] ^ (c << 8) ^ (dst[n - 2] & 0xff)) & 0xffff;
+            dst[n++] = (byte) b;
+        }
+        srcPos = p;
+        length = n;
+        pos = 0;
+        crc = c;
+        crcValid = n >= 3 && c == ((dst[n - 2] & 0xff) | ((dst[n - 1] & 0xff) << 8));
+        return n > 0;
+    }
+
+    /**
+     * @return Number of bytes remaining in the current frame, including the 2 CRC bytes
+     */
+    public int available() {
+        return length - pos;
+    }
+
+    /**
+     * @return the next unescaped byte in the frame as an unsigned value, or 0 if the frame is exhausted
+     */
+    public int next() {
+        return pos < length ? frame[pos++] & 0xff : 0;
+    }
+
+    /**
+     * @return the unescaped byte at the given index from the start of the current frame, without moving the cursor
+     */
+    public int peek(int index) {
+        return index < length ? frame[index] & 0xff : 0;
+    }
+
+    public String nextString(int numBytes) {
+        numBytes = Math.max(0, Math.min(numBytes, length - pos));
+        String result = new String(frame, pos, numBytes, StandardCharsets.ISO_8859_1);
+        pos += numBytes;
+        return result;
+    }
+
+    /**
+     * @return CRC computed over the message ID and payload of the current frame
+     */
+    public int crc() {
+        return crc;
+    }
+
+    public boolean crcValid() {
+        return crcValid;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.gdl90;
+
+import static com.meerkat.gdl90.Gdl90Cursor.Crc16Table;
+import static com.meerkat.gdl90.Gdl90Cursor.ESCAPE;
+import static com.meerkat.gdl90.Gdl90Cursor.FLAG;
+
+import java.nio.BufferOverflowException;
+
+/**
+ * Builds GDL90 frames, as sent by a Ping, e.g. for the LoadGenerator and for tests. The reverse of Gdl90Cursor and
+ * Gdl90Message.
+ * <p>
+ * Each call adds one complete frame, with its CRC, 0x7d escapes and flags, to a reusable output buffer, so several
+ * messages can be put in one datagram. Nothing is allocated per frame. clear() empties the buffer for the next
+ * datagram.
+ */
+public final class Gdl90Encoder {
+    private static final int UAVIONIX_SIGNATURE = 'u';
+    // Message being built: message ID and payload, without escapes
+    private final byte[] msg = new byte[64];
+    private int msgLen;
+    private final byte[] out;
+    private int length;
+
+    /**
+     * @param capacity Size of the output buffer, bytes
+     */
+    public Gdl90Encoder(int capacity) {
+        out = new byte[capacity];
+    }
+
+    public Gdl90Encoder clear() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * @return The output buffer, holding length() bytes
+     */
+    public byte[] array() {
+        return out;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Heartbeat (message 0)
+     *
+     * @param gpsValid Ownship position is valid
+     * @param seconds  Seconds since UTC midnight
+     */
+    public Gdl90Encoder heartbeat(boolean gpsValid, int seconds) {
+        start(0);
+        // UAT initialised
+        put(gpsValid ? 0x81 : 0x01);
+        // Timestamp bit 16, UTC OK
+        put(((seconds >> 9) & 0x80) | 0x01);
+        put(seconds);
+        put(seconds >> 8);
+        // No uplink or basic/long messages
+        put(0);
+        put(0);
+        return end();
+    }
+
+    /**
+     * Ownship report (message 10). Parameters as for traffic()
+     */
+    public Gdl90Encoder ownship(int address, double lat, double lon, double altFt, boolean airborne,
+                                float speedKnots, float vVelFpm, float track, int emitter, String callsign) {
+        return report(10, address, lat, lon, altFt, airborne, speedKnots, vVelFpm, track, emitter, callsign);
+    }
+
+    /**
+     * Traffic report (message 20), from an ICAO address with no alert, NIC 8 and NACp 8
+     *
+     * @param altFt      Pressure altitude, NaN if unknown
+     * @param speedKnots Ground speed, NaN if unknown
+     * @param track      True track
+     * @param emitter    GDL90 emitter category
+     * @param callsign   Up to 8 characters
+     */
+    public Gdl90Encoder traffic(int address, double lat, double lon, double altFt, boolean airborne,
+                                float speedKnots, float vVelFpm, float track, int emitter, String callsign) {
+        return report(20, address, lat, lon, altFt, airborne, speedKnots, vVelFpm, track, emitter, callsign);
+    }
+
+    private Gdl90Encoder report(int messageId, int address, double lat, double lon, double altFt, boolean airborne,
+                                float speedKnots, float vVelFpm, float track, int emitter, String callsign) {
+        start(messageId);
+        put(0);
+        put(address >> 16);
+        put(address >> 8);
+        put(address);
+        put3BytesDegrees(lat);
+        put3BytesDegrees(lon);
+        int alt = Double.isNaN(altFt) ? 0xfff : (int) Math.max(0, Math.min(0xffe, Math.round((altFt + 1000) / 25)));
+        put(alt >> 4);
+        // Track is true track
+        put((alt << 4) | (airborne ? 0x08 : 0) | 0x01);
+        put(0x88);
+        int speed = Float.isNaN(speedKnots) ? 0xfff : Math.max(0, Math.min(0xffe, Math.round(speedKnots)));
+        int vVel = Float.isNaN(vVelFpm) ? 0x800 : Math.max(-0x7fe, Math.min(0x7fe, Math.round(vVelFpm / 64))) & 0xfff;
+        put(speed >> 4);
+        put((speed << 4) | (vVel >> 8));
+        put(vVel);
+        put(Math.round(track * 256 / 360));
+        put(emitter);
+        putString(callsign, 8);
+        // Normal priority
+        put(0);
+        return end();
+    }
+
+    /**
+     * Ownship geometric altitude (message 11)
+     *
+     * @param altFt   Altitude above WGS-84 ellipsoid
+     * @param vfomM   Vertical figure of merit, metres; 0x7fff if unknown
+     * @param warning Vertical warning
+     */
+    public Gdl90Encoder geometricAltitude(double altFt, int vfomM, boolean warning) {
+        start(11);
+        int alt = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(altFt / 5)));
+        put(alt >> 8);
+        put(alt);
+        vfomM = Math.max(0, Math.min(0x7fff, vfomM));
+        put((warning ? 0x80 : 0) | (vfomM >> 8));
+        put(vfomM);
+        return end();
+    }
+
+    /**
+     * ForeFlight ID message (message 0x65, sub-ID 0). NB Meerkat decodes message 0x65 as SkyRadar status, not this.
+     *
+     * @param serial       Device serial number, -1 if invalid
+     * @param name         Up to 8 characters
+     * @param longName     Up to 16 characters
+     * @param capabilities Capabilities mask
+     */
+    public Gdl90Encoder foreFlightId(long serial, String name, String longName, int capabilities) {
+        start(0x65);
+        put(0);
+        // Version
+        put(1);
+        for (int i = 56; i >= 0; i -= 8)
+            put((int) (serial >> i));
+        putString(name, 8);
+        putString(longName, 16);
+        for (int i = 24; i >= 0; i -= 8)
+            put(capabilities >> i);
+        return end();
+    }
+
+    /**
+     * uAvionix QI mode message (message 117, subtype 38), version 2, which carries the barometric trim. Any of the
+     * trim values may be NaN if unknown.
+     *
+     * @param qiMode             QI mode is enabled
+     * @param lowTrimSlope       Resolution 1e-4
+     * @param lowTrimYIntercept  Resolution 1
+     * @param highTrimSlope      Resolution 1e-4
+     * @param highTrimYIntercept Resolution 1
+     * @param lowPointAlt        Resolution 1e-3
+     * @param midPointAlt        Resolution 1e-3
+     * @param highPointAlt       Resolution 1e-3
+     */
+    public Gdl90Encoder uavionixQiMode(boolean qiMode, double lowTrimSlope, double lowTrimYIntercept,
+                                       double highTrimSlope, double highTrimYIntercept,
+                                       double lowPointAlt, double midPointAlt, double highPointAlt) {
+        start(117);
+        put(UAVIONIX_SIGNATURE);
+        put(38);
+        // Version
+        put(2);
+        put(qiMode ? 0 : 1);
+        putInt(lowTrimSlope, 1e4);
+        putInt(lowTrimYIntercept, 1);
+        putInt(highTrimSlope, 1e4);
+        putInt(highTrimYIntercept, 1);
+        putInt(lowPointAlt, 1e3);
+        putInt(midPointAlt, 1e3);
+        putInt(highPointAlt, 1e3);
+        return end();
+    }
+
+    /**
+     * uAvionix identity message (message 117), in the form UavionixOem decodes for all subtypes except 38 (QI mode)
+     * and 0xfe (update mode)
+     *
+     * @param subType     Message subtype
+     * @param address     ICAO address
+     * @param emitter     GDL90 emitter category
+     * @param callsign    Up to 8 characters
+     * @param stallSpeed  Sent as hundredths, 0 to 2.55
+     * @param lengthWidth Aircraft length and width code, 0 to 15
+     * @param antennaLat  Lateral GPS antenna offset code, 0 to 7
+     * @param antennaLon  Longitudinal GPS antenna offset code, 0 to 31
+     */
+    public Gdl90Encoder uavionixIdentity(int subType, int address, int emitter, String callsign, float stallSpeed,
+                                         int lengthWidth, int antennaLat, int antennaLon) {
+        start(117);
+        put(UAVIONIX_SIGNATURE);
+        put(subType);
+        put(address >> 16);
+        put(address >> 8);
+        put(address);
+        put(emitter);
+        putString(callsign, 8);
+        put(Math.max(0, Math.min(0xff, Math.round(stallSpeed * 100))));
+        put(lengthWidth & 0x0f);
+        put((antennaLat << 5) | (antennaLon & 0x1f));
+        return end();
+    }
+
+    private void start(int messageId) {
+        msg[0] = (byte) messageId;
+        msgLen = 1;
+    }
+
+    private void put(int b) {
+        msg[msgLen++] = (byte) b;
+    }
+
+    // MSB first, scaled, 0x7fffffff if NaN
+    private void putInt(double value, double scale) {
+        int val = Double.isNaN(value) ? 0x7fffffff : (int) Math.round(value * scale);
+        put(val >> 24);
+        put(val >> 16);
+        put(val >> 8);
+        put(val);
+    }
+
+    // MSB first, signed, 180/2^23 degrees
+    private void put3BytesDegrees(double degrees) {
+        int val = (int) Math.round(degrees * 0x800000 / 180);
+        put(val >> 16);
+        put(val >> 8);
+        put(val);
+    }
+
+    // Space padded
+    private void putString(String s, int numBytes) {
+        for (int i = 0; i < numBytes; i++)
+            put(s != null && i < s.length() ? s.charAt(i) : ' ');
+    }
+
+    // Add the CRC, then escape the message into the output, between flags
+    private Gdl90Encoder end() {
+        int crc = 0;
+        for (int i = 0; i < msgLen; i++)
+            crc = (Crc16Table[crc >> 8] ^ (crc << 8) ^ (msg[i] & 0xff)) & 0xffff;
+        put(crc);
+        put(crc >> 8);
+        // Worst case, every byte is escaped
+        if (length + msgLen * 2 + 2 > out.length)
+            throw new BufferOverflowException();
+        final byte[] o = out;
+        int n = length;
+        o[n++] = (byte) FLAG;
+        for (int i = 0; i < msgLen; i++) {
+            byte b = msg[i];
+            if (b == FLAG || b == ESCAPE) {
+                o[n++] = ESCAPE;
+                b ^= 0x20;
+            }
+            o[n++] = b;
+        }
+        o[n++] = (byte) FLAG;
+        length = n;
+        return this;
+    }
+}
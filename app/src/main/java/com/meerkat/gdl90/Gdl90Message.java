@@ -38,15 +38,14 @@ import static com.meerkat.map.VehicleIcon.Emitter;
 
 import com.meerkat.MainActivity;
 import com.meerkat.log.Log;
-import com.meerkat.measure.Position;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 
 public class Gdl90Message {
+    private static final Log.Tag log = new Log.Tag("Gdl90Message");
     protected byte messageId;
     int crc;
-    private final ByteArrayInputStream is;
+    private Gdl90Cursor cursor;
     protected boolean crcValid;
 
     public enum Priority {Normal, Gen_Emerg, Med_Emerg, Min_Fuel, No_Comms, Hijack, Downed, Reserved}
@@ -76,65 +75,41 @@ public class Gdl90Message {
 
     protected static final LateralGpsOfs[] lateralGpsOfsLookup = new LateralGpsOfs[]{LateralGpsOfs.NO_DATA, LEFT_2M, LEFT_4M, LEFT_6M, RIGHT_0M, RIGHT_2M, RIGHT_4M, RIGHT_6M};
 
-    protected Gdl90Message(ByteArrayInputStream is, int msgSize, byte messageId) throws UnsupportedEncodingException {
-        this.messageId = messageId;
-        this.is = is;
-        if (is.available() < msgSize + 2) {
-            throw new UnsupportedEncodingException("Message too short: expected " + msgSize + " but received " + (is.available() - 2));
-        }
-        crc = Crc16Table[0] ^ messageId;
+    protected Gdl90Message(Gdl90Cursor cursor, int msgSize, byte messageId) throws UnsupportedEncodingException {
+        reset(cursor, msgSize, messageId);
     }
 
     protected Gdl90Message() {
-        is = null;
+        cursor = null;
     }
 
-    protected void checkCrc() {
-        if (is.available() < 3)
-            Log.e("Message too short");
-        int savedCrc = crc;
-        // Call getByte because it handles escaping
-        int recCrc = getByte() + (getByte() << 8);
-        if (is.available() < 1) {
-            Log.e("Message unexpectedly short");
-        } else if (is.read() != 0x7e)
-            Log.e("Missing closing flag");
-        crcValid = (savedCrc == recCrc);
+    /**
+     * (Re)initialise this message from the cursor's current frame, so that a message object can be reused
+     */
+    protected void reset(Gdl90Cursor cursor, int msgSize, byte messageId) throws UnsupportedEncodingException {
+        this.messageId = messageId;
+        this.cursor = cursor;
+        // msgSize includes the message ID, which has already been read; the 2 CRC bytes follow the message
+        if (cursor.available() < msgSize + 1) {
+            throw new UnsupportedEncodingException("Message too short: expected " + msgSize + " but received " + (cursor.available() - 1));
+        }
+        crc = cursor.crc();
+        crcValid = cursor.crcValid();
     }
 
-    private static final int[] Crc16Table = new int[256];
-
-    static {
-        for (int i = 0; i < 256; i++) {
-            int crc = i << 8;
-            for (int bitNum = 0; bitNum < 8; bitNum++) {
-                crc = ((crc << 1) ^ ((crc & 0x8000) != 0 ? 0x1021 : 0)) & 0xffff;
-            }
-            Crc16Table[i] = crc;
-        }
+    protected void checkCrc() {
+        // The CRC was checked when the frame was extracted... all that remains is the CRC itself
+        if (cursor.available() != 2)
+            log.e("Message length mismatch: %d bytes unread", cursor.available() - 2);
     }
 
     protected char getChar() {
-        short b = (short) (((byte) is.read()) & 0xff);
-        if (b == 0x7e) {
-            Log.e("Flag found unexpectedly");
-            return 0x7e;
-        }
-        if (b == 0x7d) b = (byte) (is.read() ^ 0x20);
-        crc = (Crc16Table[crc >> 8] ^ (crc << 8) ^ b) & 0xffff;
-        return (char) (b & 0xff);
+        return (char) cursor.next();
     }
 
     // Return short instead of byte because byte is signed, and sign-extends the MSB
     protected short getByte() {
-        short b = (short) (((byte) is.read()) & 0xff);
-        if (b == 0x7e) {
-            Log.e("Flag found unexpectedly");
-            return 0x7e;
-        }
-        if (b == 0x7d) b = (short) ((((byte) is.read()) & 0xff) ^ 0x20);
-        crc = (Crc16Table[crc >> 8] ^ (crc << 8) ^ b) & 0xffff;
-        return (short) (b & 0xff);
+        return (short) cursor.next();
     }
 
     protected long getLong() {
@@ -164,43 +139,53 @@ public class Gdl90Message {
     }
 
     protected String getString(int numBytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < numBytes; i++)
-            sb.append((char) getByte());
-        return sb.toString();
+        return cursor.nextString(numBytes);
     }
 
     protected char crcValidChar() {
         return crcValid ? ' ' : '!';
     }
 
-    public static Gdl90Message getMessage(ByteArrayInputStream is) {
+    /**
+     * Decode the next message in the cursor's source. Traffic reports are decoded into a record owned by the cursor,
+     * which is overwritten by the next call.
+     *
+     * @return the decoded message, or null if there are no more messages
+     */
+    public static Gdl90Message getMessage(Gdl90Cursor cursor) {
+        return getMessage(cursor, null);
+    }
+
+    /**
+     * As getMessage(cursor), but frames rejected by the duplicate filter are skipped without being decoded
+     */
+    public static Gdl90Message getMessage(Gdl90Cursor cursor, DuplicateFilter duplicates) {
         MainActivity.blinkAdsb();
-        while (is.available() > 0) {
-            byte messageId = (byte) is.read();
+        while (cursor.nextFrame()) {
+            if (duplicates != null && duplicates.isDuplicate(cursor)) continue;
+            byte messageId = (byte) cursor.next();
             if ((messageId & 0x80) != 0 && (messageId & 0x7f) == 0x7e) {
-                Log.e("MSB set on message ID");
+                log.e("MSB set on message ID");
                 continue;
             }
-            if (messageId == 0x7e) continue;     // Flag byte
-            Log.v("messageId = " + messageId);
+            if (log.isLoggable(Log.Level.V)) log.v("messageId = " + messageId);
             try {
                 return switch (messageId) {
-                    case 0 -> new Heartbeat(is);
-                    case 11 -> new OwnShipGeometricAltitude(is);
-                    case 10, 20 -> new Traffic(messageId, new Position("ADSB"), is);
-                    case 37 -> new Identification(is);
-                    case 40 -> new Barometer(is);
-                    case 43 -> new TransponderConfiguration(is);
-                    case 45 -> new Control(is);
-                    case 46 -> new GnssData(is);
-                    case 47 -> new TransponderStatus(is);
-                    case 101 -> new SkyRadar(is);
-                    case 117 -> new UavionixOem(is);
-                    default -> new Invalid(messageId, is);
+                    case 0 -> new Heartbeat(cursor);
+                    case 11 -> new OwnShipGeometricAltitude(cursor);
+                    case 10, 20 -> cursor.traffic.decode(messageId, cursor);
+                    case 37 -> new Identification(cursor);
+                    case 40 -> new Barometer(cursor);
+                    case 43 -> new TransponderConfiguration(cursor);
+                    case 45 -> new Control(cursor);
+                    case 46 -> new GnssData(cursor);
+                    case 47 -> new TransponderStatus(cursor);
+                    case 101 -> new SkyRadar(cursor);
+                    case 117 -> new UavionixOem(cursor);
+                    default -> new Invalid(messageId, cursor);
                 };
             } catch (UnsupportedEncodingException ex) {
-                Log.e(ex.getMessage());
+                log.e(ex.getMessage());
             }
         }
         return null;
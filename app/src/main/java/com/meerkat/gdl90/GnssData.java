@@ -14,7 +14,6 @@ package com.meerkat.gdl90;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -30,12 +29,12 @@ public class GnssData extends Gdl90Message {
     private final boolean hplActive, fault, magNorthRef;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
-    public GnssData(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 44, (byte) 46);
+    public GnssData(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 44, (byte) 46);
         msgVersion = (byte) getByte();
         int msgSize = msgVersion == 2 ? 48 : 44;
-        if (is.available() < msgSize + 1) {
-            throw new  UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+        if (cursor.available() < msgSize) {
+            throw new  UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + cursor.available());
         }
         seconds = getInt() & 0xffff;
         int i = (int) getInt();
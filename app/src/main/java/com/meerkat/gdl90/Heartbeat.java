@@ -13,7 +13,6 @@
 package com.meerkat.gdl90;
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -40,8 +39,8 @@ public class Heartbeat extends Gdl90Message {
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
 
-    public Heartbeat(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 7, (byte) 0);
+    public Heartbeat(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 7, (byte) 0);
         status1 = (byte) getByte();
         validPos = (status1 & 0x80) != 0;
         maintReq = (status1 & 0x40) != 0;
@@ -13,7 +13,6 @@
 package com.meerkat.gdl90;
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -28,12 +27,12 @@ public class Identification extends Gdl90Message {
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
 
-    public Identification(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 22, (byte) 37);
+    public Identification(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 22, (byte) 37);
         msgVersion = (byte) getByte();
         int msgSize = msgVersion == 1 ? 18 : msgVersion == 2 ? 36 : 66;
-        if (is.available() < msgSize + 1) {
-            throw new UnsupportedEncodingException(String.format("Message too short: expected %d but received %d",msgSize, is.available()-1));
+        if (cursor.available() < msgSize) {
+            throw new UnsupportedEncodingException(String.format("Message too short: expected %d but received %d",msgSize, cursor.available()));
         }
         priFwMajorVersion = (byte) getByte();
         priFwMinorVersion = (byte) getByte();
@@ -13,7 +13,6 @@
 package com.meerkat.gdl90;
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Locale;
@@ -21,14 +20,11 @@ import java.util.Locale;
 public class Invalid extends Gdl90Message {
     final ArrayList<Byte> data;
 
-    public Invalid(byte messageId, ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 0, messageId);
+    public Invalid(byte messageId, Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 0, messageId);
         data = new ArrayList<>();
-        do {
-            byte b = (byte) is.read();
-            if ((b & 0x7f) == 0x7e) break;
-            data.add(b);
-        } while (is.available() > 0);
+        while (cursor.available() > 0)
+            data.add((byte) getByte());
     }
 
     @NonNull
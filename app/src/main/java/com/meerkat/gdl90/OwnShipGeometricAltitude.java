@@ -14,7 +14,6 @@ package com.meerkat.gdl90;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -24,8 +23,8 @@ public class OwnShipGeometricAltitude extends Gdl90Message {
     private final int vfom;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
-    public OwnShipGeometricAltitude(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 4, (byte) 11);
+    public OwnShipGeometricAltitude(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 4, (byte) 11);
         alt = getShort();
         byte message3 = (byte) getByte();
         warning = (message3 & 0x80) != 0;
@@ -14,7 +14,6 @@ package com.meerkat.gdl90;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -28,12 +27,12 @@ public class SkyRadar extends Gdl90Message {
     private long recvHwId;
     private double hdop;
 
-    public SkyRadar(ByteArrayInputStream is)  throws UnsupportedEncodingException  {
-        super(is, 9, (byte) 101);
+    public SkyRadar(Gdl90Cursor cursor)  throws UnsupportedEncodingException  {
+        super(cursor, 9, (byte) 101);
         fwVersion = (byte) getByte();
         int msgSize = fwVersion < 42 ? 9 : fwVersion < 45 ? 11 : 20;
-        if (is.available() < msgSize + 1) {
-            throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+        if (cursor.available() < msgSize) {
+            throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + cursor.available());
         }
         debugData = (byte) getByte();
         fixQuality = getChar();
@@ -12,10 +12,13 @@
  */
 package com.meerkat.gdl90;
 
+import static com.meerkat.ui.settings.SettingsViewModel.altUnits;
 import static com.meerkat.ui.settings.SettingsViewModel.minGpsUpdateIntervalSeconds;
 import static com.meerkat.ui.settings.SettingsViewModel.ownCallsign;
 import static com.meerkat.ui.settings.SettingsViewModel.ownId;
 import static com.meerkat.ui.settings.SettingsViewModel.preferAdsbPosition;
+import static com.meerkat.ui.settings.SettingsViewModel.speedUnits;
+import static com.meerkat.ui.settings.SettingsViewModel.vertSpeedUnits;
 import static java.lang.Float.NaN;
 
 import android.hardware.GeomagneticField;
@@ -24,30 +27,33 @@ import androidx.annotation.NonNull;
 
 import com.meerkat.Gps;
 import com.meerkat.VehicleList;
+import com.meerkat.VirtualClock;
 import com.meerkat.log.Log;
 import com.meerkat.map.VehicleIcon;
 import com.meerkat.measure.Position;
 import com.meerkat.measure.Units;
 import com.meerkat.ui.settings.SettingsViewModel;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
-import java.time.Instant;
 import java.util.Locale;
 
 public class Traffic extends Gdl90Message {
-    public final VehicleIcon.Emitter emitterType;
-    private final boolean ownShip;
-    private final int alertStatus;
-    private final AddrType addrType;
-    public final int participantAddr;
-    public final Position point;
-    private final boolean extrapolated;
-    final int nic;
-    final int nac;
-    public final String callsign;
-    final Priority priority;
-    public final boolean airborne;
+    private static final Log.Tag log = new Log.Tag("Traffic");
+    public VehicleIcon.Emitter emitterType;
+    private boolean ownShip;
+    private int alertStatus;
+    private AddrType addrType;
+    public int participantAddr;
+    double lat, lon, alt;
+    float speed, track;
+    double vVel;
+    public long time;
+    private boolean extrapolated;
+    int nic;
+    int nac;
+    public String callsign;
+    Priority priority;
+    public boolean airborne;
 
     public enum TrackType {Invalid, TRK, Mag, True}
 
@@ -56,11 +62,27 @@ public class Traffic extends Gdl90Message {
     final static private AddrType[] AddrTypeLookup = new AddrType[]{AddrType.ICAO_ADSB, AddrType.self_ADSB, AddrType.ICAO_TISB, AddrType.file_TISB, AddrType.SFC_Vehicle, AddrType.GND_Beacon, AddrType.Reserved};
     final static private TrackType[] trackTypeLookup = new TrackType[]{TrackType.Invalid, TrackType.TRK, TrackType.Mag, TrackType.True};
 
+    /**
+     * An empty, reusable traffic record... see decode()
+     */
+    Traffic() {
+        super();
+    }
+
+    public Traffic(byte messageId, Gdl90Cursor cursor) throws UnsupportedEncodingException {
+        super();
+        decode(messageId, cursor);
+    }
+
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf 6.21 (Ownship) & 6.2.
 
-    public Traffic(byte messageId, Position point, ByteArrayInputStream is) throws UnsupportedEncodingException {
-        super(is, 28, messageId);
-        this.point = point;
+    /**
+     * Overwrite this record with the Traffic or Ownship report in the cursor's current frame.
+     * No Position is created... see toPosition()
+     */
+    Traffic decode(byte messageId, Gdl90Cursor cursor) throws UnsupportedEncodingException {
+        reset(cursor, 28, messageId);
+        time = 0;
         ownShip = messageId == 10;
         short b = getByte();
         alertStatus = b >>> 4;
@@ -68,8 +90,8 @@ public class Traffic extends Gdl90Message {
         int addrTypeNum = b < AddrType.values().length ? b : AddrType.values().length - 1;
         addrType = AddrTypeLookup[addrTypeNum];
         participantAddr = (addrTypeNum << 24) + (getByte() << 16) + (getByte() << 8) + getByte();
-        double lat = get3BytesDegrees();
-        double lon = get3BytesDegrees();
+        lat = get3BytesDegrees();
+        lon = get3BytesDegrees();
 
         int alt = getByte() << 4;
         b = getByte();
@@ -77,6 +99,7 @@ public class Traffic extends Gdl90Message {
         // The 0xFFF value represents that the pressure altitude is invalid.
         if (alt == 0xfff) alt = -100000;
         else alt = alt * 25 - 1000;
+        this.alt = alt < -1000 ? Double.NaN : Units.Height.FT.toM(alt);
 
         // Misc bitmap
         TrackType trackType = trackTypeLookup[b & 0x03];
@@ -99,8 +122,16 @@ public class Traffic extends Gdl90Message {
             vVel -= 0x1000;
         }
         vVel *= 64;
+        this.vVel = Units.VertSpeed.FPM.toMps(vVel);
 
         float track = getByte() * 360.0f / 256;
+        if (hSpeed == 0xfff) {
+            speed = NaN;
+            this.track = NaN;
+        } else {
+            speed = (float) Units.Speed.KNOTS.toMps(hSpeed);
+            this.track = trueTrack(track, trackType, lat, lon, alt);
+        }
         emitterType = emitterLookup[getByte()];
         callsign = getString(8).trim();
         if (ownId == 0 && callsign.equals(ownCallsign)) {
@@ -111,30 +142,11 @@ public class Traffic extends Gdl90Message {
         int p = b >> 4;
         priority = priorityLookup[p < Priority.values().length ? p : Priority.values().length - 1];
         checkCrc();
-        point.setProvider("ADS-B");
-        point.setLatitude(lat);
-        point.setLongitude(lon);
-        if (Double.isNaN(lat) || Double.isNaN(lon))
-            point.removeAccuracy();
-        else
-            point.setAccuracy(20);
-        if (alt < -1000) point.removeAltitude();
-        else point.setAltitude(Units.Height.FT.toM(alt));
-        if (hSpeed == 0xfff) {
-            point.removeSpeed();
-            point.removeBearing();
-        } else {
-            point.setSpeed((float) Units.Speed.KNOTS.toMps(hSpeed));
-            point.setTrack(trueTrack(track, trackType, lat, lon, alt));
-        }
-        point.setVVel(Units.VertSpeed.FPM.toMps(vVel));
-        point.setCrcValid(crcValid);
-        point.setAirborne(airborne);
-        Log.v(point.toString());
+        if (log.isLoggable(Log.Level.V)) log.v("%s", this);
         // Use this position if it is preferred or if it's been too long since a GPS message has updated it
-        if (ownId == participantAddr && (preferAdsbPosition || point.getTime() + minGpsUpdateIntervalSeconds * 1000L > Instant.now().toEpochMilli()))
-            Gps.setLocation(point);
-
+        if (ownId == participantAddr && (preferAdsbPosition || time + minGpsUpdateIntervalSeconds * 1000L > VirtualClock.millis()))
+            Gps.setLocation(toPosition());
+        return this;
     }
 
     private float trueTrack(float track, TrackType trackType, double lat, double lon, int alt) {
@@ -142,22 +154,72 @@ public class Traffic extends Gdl90Message {
             // Heading rather than track
             case True -> track;
             case Mag ->
-                    (track + new GeomagneticField((float) lat, (float) lon, alt, Instant.now().toEpochMilli()).getDeclination()) % 360;
+                    (track + new GeomagneticField((float) lat, (float) lon, alt, VirtualClock.millis()).getDeclination()) % 360;
             // Track
             case TRK -> track;
             case Invalid -> NaN;
         };
     }
 
+    public boolean hasLatLon() {
+        return !Double.isNaN(lat) && !Double.isNaN(lon);
+    }
+
+    public double getLatitude() {
+        return lat;
+    }
+
+    public double getLongitude() {
+        return lon;
+    }
+
+    /**
+     * Copy the position and movement of this report into point
+     *
+     * @return point
+     */
+    public Position toPosition(Position point) {
+        point.setProvider("ADS-B");
+        point.setTime(time);
+        point.setLatitude(lat);
+        point.setLongitude(lon);
+        if (hasLatLon())
+            point.setAccuracy(20);
+        else
+            point.removeAccuracy();
+        if (Double.isNaN(alt)) point.removeAltitude();
+        else point.setAltitude(alt);
+        if (Float.isNaN(speed)) {
+            point.removeSpeed();
+            point.setTrack(NaN);
+        } else {
+            point.setSpeed(speed);
+            point.setTrack(track);
+        }
+        point.setVVel(vVel);
+        point.setCrcValid(crcValid);
+        point.setAirborne(airborne);
+        return point;
+    }
+
+    public Position toPosition() {
+        return toPosition(new Position("ADS-B"));
+    }
+
+    /**
+     * Add this report to the vehicle list. A Position is only created if the report is not a duplicate.
+     */
     public void upsert(VehicleList vehicleList) {
-        vehicleList.upsert(crc, callsign, participantAddr, point, emitterType);
+        if (vehicleList.isDuplicate(participantAddr, crc)) return;
+        vehicleList.upsert(crc, callsign, participantAddr, toPosition(), emitterType);
     }
 
     @NonNull
     public String toString() {
-        return String.format(Locale.ENGLISH, "%c%c: %8s %s %s %s NIC=%2d NAC=%2d %s %s %o",
+        return String.format(Locale.ENGLISH, "%c%c: %8s %s %s %s %s %s %s NIC=%2d NAC=%2d %s %s %o",
                 ownShip ? 'O' : 'T', crcValidChar(),
-                callsign, point,
+                callsign, hasLatLon() ? String.format(Locale.ENGLISH, "(%.5f, %.5f)", lat, lon) : "(-----, -----)",
+                altUnits.toString(alt), speedUnits.toString(speed), vertSpeedUnits.toString(vVel),
                 priority, (alertStatus == 0 ? "No alert" : "Traffic Alert"), nic, nac, (extrapolated ? "Extrap" : "Report"),
                 addrType, participantAddr);
     }
@@ -18,7 +18,6 @@ import androidx.annotation.NonNull;
 
 import com.meerkat.map.VehicleIcon;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 
@@ -52,13 +51,13 @@ public class TransponderConfiguration extends Gdl90Message {
     public ArrayList<Protocol> inputProtocol, outputProtocol;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
-    public TransponderConfiguration(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 19, (byte) 43);
+    public TransponderConfiguration(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 19, (byte) 43);
         msgVersion = (byte) getByte();
         //noinspection ConditionalExpressionWithIdenticalBranches
         int msgSize = msgVersion == 1 ? 19 : msgVersion == 2 ? 21 : msgVersion == 3 ? 22 : msgVersion == 4 ? 29 : 29;
-        if (is.available() < msgSize + 1) {
-              throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+        if (cursor.available() < msgSize) {
+              throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + cursor.available());
         }
         participantAddr = (getByte() << 16) + (getByte() << 8) + getByte();
         byte b = (byte) getByte();
@@ -14,7 +14,6 @@ package com.meerkat.gdl90;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
@@ -32,12 +31,12 @@ public class TransponderStatus extends Gdl90Message {
     private int boardTemp;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
-    public TransponderStatus(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 9, (byte) 47);
+    public TransponderStatus(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 9, (byte) 47);
         msgVersion = (byte) getByte();
         int msgSize = msgVersion == 1 ? 9 : msgVersion == 2 ? 15 : 16;
-        if (is.available() < msgSize + 1) {
-            throw new  UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+        if (cursor.available() < msgSize) {
+            throw new  UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + cursor.available());
         }
         byte b = (byte) getByte();
         tx1090ES = (b & 0x80) != 0;
@@ -16,30 +16,29 @@ import androidx.annotation.NonNull;
 
 import com.meerkat.map.VehicleIcon;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 
 @SuppressWarnings({"FieldCanBeLocal", "unused"})
 public class UavionixOem extends Gdl90Message {
-    private final char signature;
-    private final int subType;
-    private byte msgVersion;
-    private double lowTrimSlope, lowTrimYIntercept, highTrimSlope, highTrimYIntercept, lowPointAlt, midPointAlt, highPointAlt;
-    private int icao;
-    private VehicleIcon.Emitter emitterType;
-    private String callsign;
-    private float stallSpeed;
-    private AircraftLengthWeight avLw;
-    private LateralGpsOfs antOfslat;
-    private int antOfsLon;
-    private int baudRate, numHops;
-    private boolean qiMode;
+    final char signature;
+    final int subType;
+    byte msgVersion;
+    double lowTrimSlope, lowTrimYIntercept, highTrimSlope, highTrimYIntercept, lowPointAlt, midPointAlt, highPointAlt;
+    int icao;
+    VehicleIcon.Emitter emitterType;
+    String callsign;
+    float stallSpeed;
+    AircraftLengthWeight avLw;
+    LateralGpsOfs antOfslat;
+    int antOfsLon;
+    int baudRate, numHops;
+    boolean qiMode;
 
     // uAvionix - uAvionix-UCP-Transponder-ICD-Rev-Q.pdf
 
-    public UavionixOem(ByteArrayInputStream is)  throws UnsupportedEncodingException {
-        super(is, 4, (byte) 117);
+    public UavionixOem(Gdl90Cursor cursor)  throws UnsupportedEncodingException {
+        super(cursor, 4, (byte) 117);
         signature = Character.highSurrogate(getByte());
         subType = getByte();
         switch (subType) {
@@ -47,8 +46,8 @@ public class UavionixOem extends Gdl90Message {
                 // QI Mode
                 msgVersion = (byte) getByte();
                 int msgSize = msgVersion == 1 ? 4 : 29;
-                if (is.available() < msgSize + 1) {
-                    throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+                if (cursor.available() < msgSize) {
+                    throw new UnsupportedEncodingException ("Message too short: expected " + msgSize + " but received " + cursor.available());
                 }
                 qiMode = getByte() == 0;
                 if (msgVersion > 1) {
@@ -72,8 +71,8 @@ public class UavionixOem extends Gdl90Message {
                 // System Command - Enter Update Mode
                 msgVersion = (byte) getByte();
                 msgSize = 8;
-                if (is.available() < msgSize + 1) {
-                    throw new  UnsupportedEncodingException("Message too short: expected " + msgSize + " but received " + (is.available() - 1));
+                if (cursor.available() < msgSize) {
+                    throw new  UnsupportedEncodingException("Message too short: expected " + msgSize + " but received " + cursor.available());
                 }
                 baudRate = (int) getInt();
                 numHops = getByte();
@@ -87,7 +86,7 @@ public class UavionixOem extends Gdl90Message {
                 stallSpeed = getByte()/100f;
                 avLw = AircraftLengthWeightLookup[getByte()];
                 byte b = (byte) getByte();
-                antOfslat = lateralGpsOfsLookup[b >> 5];
+                antOfslat = lateralGpsOfsLookup[(b >> 5) & 0x07];
                 antOfsLon = b & 0x1f;
         }
         checkCrc();
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue of unformatted log messages, which are formatted and written by a background thread.
+ * <p>
+ * Any number of threads may add messages. Each slot of a fixed-size ring has a sequence number, which says whether
+ * it is free for the producer whose turn it is or full for the consumer, so adding a message takes no lock. If the
+ * ring is full the message is dropped and counted; the number dropped is logged once there is room again.
+ * <p>
+ * Strings, boxed primitives, enums and Throwables are only formatted when the message is written. Any other argument
+ * may be mutable or reused by the caller (e.g. a Traffic record or a snapshot array), so it is converted to a String
+ * when it is queued.
+ * <p>
+ * A producer may still add a message after close() has drained the ring, if it fetched the queue before it was
+ * replaced. Once the background thread has stopped, such a producer writes the queued messages itself.
+ */
+final class AsyncLog {
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final Log.Level[] levels;
+    private final String[] tags, formats;
+    private final Object[][] args;
+    private final long[] times;
+    private final AtomicLong tail = new AtomicLong();
+    // Only used by the consumer
+    private long head;
+    private final AtomicLong dropped = new AtomicLong();
+    private long droppedReported;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    AsyncLog(int capacity) {
+        capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = capacity - 1;
+        sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequence.set(i, i);
+        levels = new Log.Level[capacity];
+        tags = new String[capacity];
+        formats = new String[capacity];
+        args = new Object[capacity][];
+        times = new long[capacity];
+        thread = new Thread(this::run, "Log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add a message. Never blocks.
+     */
+    void offer(Log.Level level, String tag, String format, Object[] args) {
+        args = snapshot(args);
+        long pos = tail.get();
+        int i;
+        while (true) {
+            i = (int) pos & mask;
+            long dif = sequence.get(i) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (dif < 0) {
+                // Slot still holds a message from the previous lap
+                dropped.incrementAndGet();
+                return;
+            }
+            pos = tail.get();
+        }
+        levels[i] = level;
+        tags[i] = tag;
+        formats[i] = format;
+        this.args[i] = args;
+        times[i] = System.currentTimeMillis();
+        sequence.set(i, pos + 1);
+        if (waiting)
+            LockSupport.unpark(thread);
+        // Checked after the message is published: if closed is still false, close()'s final drain will see it
+        if (closed)
+            drainClosed();
+    }
+
+    private static Object[] snapshot(Object[] args) {
+        if (args == null) return null;
+        Object[] copy = null;
+        for (int j = 0; j < args.length; j++) {
+            Object a = args[j];
+            if (a == null || a instanceof String || a instanceof Integer || a instanceof Long || a instanceof Float
+                    || a instanceof Double || a instanceof Short || a instanceof Byte || a instanceof Boolean
+                    || a instanceof Character || a instanceof Enum || a instanceof Throwable)
+                continue;
+            // Copy rather than change the caller's array
+            if (copy == null) copy = args.clone();
+            copy[j] = a.toString();
+        }
+        return copy == null ? args : copy;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Write any queued messages, then stop the background thread
+     */
+    void close() {
+        closed = true;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            // Do nothing
+        }
+        // Pick up anything added while the thread was stopping
+        drainClosed();
+    }
+
+    // Once the background thread has stopped, consumers take turns under this lock
+    private synchronized void drainClosed() {
+        if (!thread.isAlive())
+            drain();
+    }
+
+    /**
+     * @return false if there was nothing to write
+     */
+    private boolean poll() {
+        int i = (int) head & mask;
+        if (sequence.get(i) != head + 1) return false;
+        Log.Level level = levels[i];
+        String tag = tags[i], format = formats[i];
+        Object[] a = args[i];
+        long time = times[i];
+        tags[i] = formats[i] = null;
+        args[i] = null;
+        sequence.set(i, head + mask + 1);
+        head++;
+        try {
+            Log.write(level, tag, format, a, time);
+        } catch (RuntimeException e) {
+            android.util.Log.e(tag, "Log write (" + format + ") failed: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void drain() {
+        //noinspection StatementWithEmptyBody
+        while (poll()) ;
+        long d = dropped.get();
+        if (d != droppedReported) {
+            Log.write(Log.Level.W, "AsyncLog", "%d log messages dropped", new Object[]{d - droppedReported}, System.currentTimeMillis());
+            droppedReported = d;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            drain();
+            waiting = true;
+            // Check again after setting waiting, in case a message was added in between
+            if (running && sequence.get((int) head & mask) != head + 1)
+                LockSupport.parkNanos(100_000_000L);
+            waiting = false;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a capture file: the file position of the first frame in each INTERVAL of capture time. Used to
+ * start a replay part way through a capture without reading everything before it.
+ * <p>
+ * The index is built by reading the capture once, and saved next to it as a .idx file. It is rebuilt whenever the
+ * capture's modification time or length changes.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * Header:  int magic, int version, long capture modified time, long capture length, int count
+ * Entries: count pairs of long time (epoch ms), long file position, in ascending order
+ * </pre>
+ */
+public class CaptureIndex {
+    private static final int MAGIC = 0x4d4b4958; // "MKIX"
+    private static final int VERSION = 1;
+    static final long INTERVAL = 10_000;
+
+    private final long[] times;
+    private final long[] positions;
+
+    private CaptureIndex(long[] times, long[] positions) {
+        this.times = times;
+        this.positions = positions;
+    }
+
+    /**
+     * Load the index for a capture file, building it first if necessary
+     */
+    public static CaptureIndex load(File captureFile) throws IOException {
+        File indexFile = new File(captureFile.getPath() + ".idx");
+        if (indexFile.exists()) {
+            try {
+                CaptureIndex index = read(indexFile, captureFile.lastModified(), captureFile.length());
+                if (index != null) return index;
+                Log.i("Capture index %s is out of date", indexFile.getPath());
+            } catch (IOException e) {
+                Log.e("Capture index %s invalid: %s", indexFile.getPath(), e.getMessage());
+            }
+        }
+        CaptureIndex index = build(captureFile);
+        try {
+            index.write(indexFile, captureFile.lastModified(), captureFile.length());
+            Log.i("Wrote %d entries to %s", index.size(), indexFile.getPath());
+        } catch (IOException e) {
+            // The index still works, it just has to be built again next time
+            Log.e("Failed to write capture index %s: %s", indexFile.getPath(), e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            indexFile.delete();
+        }
+        return index;
+    }
+
+    static CaptureIndex build(File captureFile) throws IOException {
+        long[] times = new long[64];
+        long[] positions = new long[64];
+        int n = 0;
+        try (var reader = new CaptureReader(captureFile)) {
+            long pos = reader.position();
+            long next = Long.MIN_VALUE;
+            while (reader.next()) {
+                if (reader.time() >= next) {
+                    if (n == times.length) {
+                        times = Arrays.copyOf(times, n * 2);
+                        positions = Arrays.copyOf(positions, n * 2);
+                    }
+                    times[n] = reader.time();
+                    positions[n++] = pos;
+                    next = reader.time() - reader.time() % INTERVAL + INTERVAL;
+                }
+                pos = reader.position();
+            }
+        }
+        return new CaptureIndex(Arrays.copyOf(times, n), Arrays.copyOf(positions, n));
+    }
+
+    /**
+     * @return Index read from the file, or null if it doesn't match the capture file
+     */
+    static CaptureIndex read(File indexFile, long captureModified, long captureLength) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("bad header");
+            if (in.readLong() != captureModified || in.readLong() != captureLength)
+                return null;
+            int n = in.readInt();
+            if (n < 0 || n > indexFile.length() / 16)
+                throw new IOException("bad entry count");
+            long[] times = new long[n];
+            long[] positions = new long[n];
+            for (int i = 0; i < n; i++) {
+                times[i] = in.readLong();
+                positions[i] = in.readLong();
+            }
+            return new CaptureIndex(times, positions);
+        }
+    }
+
+    void write(File indexFile, long captureModified, long captureLength) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(captureModified);
+            out.writeLong(captureLength);
+            out.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                out.writeLong(times[i]);
+                out.writeLong(positions[i]);
+            }
+        }
+        if (!tmp.renameTo(indexFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("rename failed");
+        }
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * @return Time of the first frame, epoch ms, or 0 if the capture is empty
+     */
+    public long getStartTime() {
+        return times.length == 0 ? 0 : times[0];
+    }
+
+    /**
+     * @return Time of the last indexed frame, epoch ms, which is within INTERVAL of the end of the capture
+     */
+    public long getEndTime() {
+        return times.length == 0 ? 0 : times[times.length - 1];
+    }
+
+    /**
+     * @return File position to read from to reach the frames at a given time: the position of the last indexed frame
+     * at or before that time, or of the first frame if the time is before the start of the capture
+     */
+    public long position(long time) {
+        if (times.length == 0) return CaptureWriter.HEADER_SIZE;
+        int i = Arrays.binarySearch(times, time);
+        if (i < 0) i = Math.max(0, -i - 2);
+        return positions[i];
+    }
+}
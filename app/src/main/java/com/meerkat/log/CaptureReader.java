@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import static com.meerkat.log.CaptureWriter.FRAME_HEADER_SIZE;
+import static com.meerkat.log.CaptureWriter.HEADER_SIZE;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the frames of a capture file written by CaptureWriter, one at a time. The frame's payload is only valid until
+ * the next call to next().
+ */
+public class CaptureReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    // File position of the end of the data in the buffer
+    private long filePos;
+    private final long startTime;
+    private final byte[] data = new byte[0xffff];
+    private final ByteBuffer payload = ByteBuffer.wrap(data);
+    private byte source;
+    private long time;
+    private int length;
+
+    public CaptureReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer.limit(0);
+        if (!ensure(HEADER_SIZE) || buffer.getInt() != CaptureWriter.MAGIC || buffer.getInt() != CaptureWriter.VERSION) {
+            channel.close();
+            throw new IOException("Not a capture file: " + file.getPath());
+        }
+        startTime = buffer.getLong();
+    }
+
+    /**
+     * @return Time the capture started, epoch ms
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Read the next frame
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        if (!ensure(FRAME_HEADER_SIZE)) return false;
+        int len = buffer.getShort() & 0xffff;
+        byte src = buffer.get();
+        int offset = buffer.getInt();
+        if (!ensure(len)) return false;
+        buffer.get(data, 0, len);
+        source = src;
+        time = startTime + offset;
+        length = len;
+        payload.clear().limit(len);
+        return true;
+    }
+
+    public byte source() {
+        return source;
+    }
+
+    /**
+     * @return Time the frame was received, epoch ms
+     */
+    public long time() {
+        return time;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return Payload of the frame, from 0 to length()
+     */
+    public byte[] data() {
+        return data;
+    }
+
+    /**
+     * @return Payload of the frame, positioned at its start
+     */
+    public ByteBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * @return File position of the next frame
+     */
+    public long position() {
+        return filePos - buffer.remaining();
+    }
+
+    /**
+     * Continue reading from a position previously returned by position()
+     */
+    public void seek(long position) throws IOException {
+        channel.position(position);
+        filePos = position;
+        buffer.clear().limit(0);
+    }
+
+    private boolean ensure(int n) throws IOException {
+        if (buffer.remaining() >= n) return true;
+        buffer.compact();
+        while (buffer.position() < n) {
+            int r = channel.read(buffer);
+            if (r < 0) break;
+            filePos += r;
+        }
+        buffer.flip();
+        return buffer.remaining() >= n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records received messages in a compact binary capture file, for replay by LogReplay.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * Header: int magic, int version, long start time (epoch ms)
+ * Frames: unsigned short payload length, byte source, int time (ms after the start time), payload
+ * </pre>
+ * Frame times never go backwards. A GDL90 frame's payload is the datagram exactly as received. A GPS frame's payload
+ * is double latitude, double longitude, double altitude (m), float speed (m/s), float track.
+ * <p>
+ * Frames are collected in a buffer and written to the file when it fills, or when FLUSH_INTERVAL_MILLIS of frame time
+ * has passed since it was last written, so recording a frame is normally just a copy and at most a few seconds are
+ * lost if the app is killed. A frame cut short by the app being killed is ignored when the file is read.
+ */
+public class CaptureWriter implements Closeable {
+    static final int MAGIC = 0x4d4b4350; // "MKCP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8;
+    static final int FRAME_HEADER_SIZE = 2 + 1 + 4;
+    public static final byte SOURCE_GDL90 = 1;
+    public static final byte SOURCE_GPS = 2;
+    public static final int GPS_SIZE = 8 + 8 + 8 + 4 + 4;
+    static final long FLUSH_INTERVAL_MILLIS = 5000;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final File file;
+    private final long startTime;
+    private int prevOffset;
+    private long flushTime;
+    private long frames;
+    private boolean failed, closed;
+
+    /**
+     * Create a new capture file, replacing any existing file
+     *
+     * @param startTime Time the capture starts, epoch ms; frame times are relative to this
+     */
+    public CaptureWriter(File file, long startTime) throws IOException {
+        this.file = file;
+        this.startTime = startTime;
+        flushTime = startTime;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(startTime);
+        Log.i("Capturing to %s", file.getPath());
+    }
+
+    /**
+     * Record a message
+     *
+     * @param time Time received, epoch ms
+     */
+    public synchronized void write(byte source, long time, byte[] data, int offset, int length) {
+        if (!frame(source, time, length)) return;
+        buffer.put(data, offset, length);
+        flushIfDue(time);
+    }
+
+    /**
+     * Record a GPS fix
+     */
+    public synchronized void writeGps(long time, double lat, double lon, double alt, float speed, float track) {
+        if (!frame(SOURCE_GPS, time, GPS_SIZE)) return;
+        buffer.putDouble(lat).putDouble(lon).putDouble(alt).putFloat(speed).putFloat(track);
+        flushIfDue(time);
+    }
+
+    private void flushIfDue(long time) {
+        if (time - flushTime < FLUSH_INTERVAL_MILLIS) return;
+        flushTime = time;
+        drain();
+    }
+
+    private boolean frame(byte source, long time, int length) {
+        if (failed || closed || length > 0xffff) return false;
+        if (buffer.remaining() < FRAME_HEADER_SIZE + length && !drain())
+            return false;
+        int offset = (int) Math.max(prevOffset, Math.min(Integer.MAX_VALUE, time - startTime));
+        prevOffset = offset;
+        buffer.putShort((short) length).put(source).putInt(offset);
+        frames++;
+        return true;
+    }
+
+    private boolean drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+            return true;
+        } catch (IOException e) {
+            // Give up, rather than failing on every message
+            failed = true;
+            Log.e("Capture to %s failed: %s", file.getPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized void flush() {
+        if (!failed && !closed) drain();
+    }
+
+    /**
+     * @return true if a write failed, so the file is incomplete
+     */
+    public synchronized boolean hasFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e("Capture close failed: %s", e.getMessage());
+        }
+        closed = true;
+        Log.i("Capture %s closed: %d frames", file.getPath(), frames);
+    }
+}
@@ -39,7 +39,52 @@ public final class Log {
     private static final Set<LogWriter> logWriters = new HashSet<>();
     private static final AndroidLogWriter ANDROID_LOG_WRITER;
 
-    private static Level mMinLevel = Level.V;
+    private static volatile Level mMinLevel = Level.V;
+    // If set, messages are formatted & written by a background thread
+    private static volatile AsyncLog async;
+    // If set, untagged messages are tagged with the caller's file & line, found from a stack trace
+    private static volatile boolean callerTags;
+    private static final String DEFAULT_TAG = "Meerkat";
+
+    /**
+     * Fixed tag for a class's messages, so that the caller doesn't need to be found from a stack trace. In busy code,
+     * check isLoggable() first so that the arguments aren't even boxed unless the message will be logged.
+     */
+    public static final class Tag {
+        private final String name;
+
+        public Tag(String name) {
+            this.name = name.length() < MAX_FILENAME_LENGTH ? name : name.substring(0, MAX_FILENAME_LENGTH);
+        }
+
+        public boolean isLoggable(Level level) {
+            return Log.isLoggable(level);
+        }
+
+        public void v(String format, Object... args) {
+            log(name, Level.V, format, args);
+        }
+
+        public void d(String format, Object... args) {
+            log(name, Level.D, format, args);
+        }
+
+        public void i(String format, Object... args) {
+            log(name, Level.I, format, args);
+        }
+
+        public void w(String format, Object... args) {
+            log(name, Level.W, format, args);
+        }
+
+        public void e(String format, Object... args) {
+            log(name, Level.E, format, args);
+        }
+
+        public void a(String format, Object... args) {
+            log(name, Level.A, format, args);
+        }
+    }
 
     static {
         try {
@@ -55,6 +100,18 @@ public final class Log {
         mMinLevel = minLevel;
     }
 
+    public static boolean isLoggable(Level level) {
+        return level.value >= mMinLevel.value;
+    }
+
+    /**
+     * Tag untagged messages with the caller's file name & line number. This is a debugging aid: it costs a stack
+     * trace for every message logged.
+     */
+    public static void useCallerTags(boolean on) {
+        callerTags = on;
+    }
+
     public static synchronized void useLogWriter(LogWriter p, boolean on) {
         if (on) {
             logWriters.add(p);
@@ -63,6 +120,30 @@ public final class Log {
         }
     }
 
+    /**
+     * Queue messages to be formatted and written on a background thread, rather than on the thread that logs them.
+     * Queued messages are written before this returns if the mode is changed.
+     *
+     * @param capacity Maximum number of messages queued, beyond which messages are dropped; 0 to write messages
+     *                 synchronously
+     */
+    public static void useAsync(int capacity) {
+        AsyncLog old;
+        synchronized (Log.class) {
+            old = async;
+            async = capacity > 0 ? new AsyncLog(capacity) : null;
+        }
+        if (old != null) old.close();
+    }
+
+    /**
+     * @return Number of messages dropped because the async queue was full
+     */
+    public static long getDropped() {
+        AsyncLog a = async;
+        return a == null ? 0 : a.getDropped();
+    }
+
     public static synchronized void useFileWriter(File file, boolean append) {
         FileLogWriter fp = new FileLogWriter(file, append);
         logWriters.add(fp);
@@ -72,35 +153,39 @@ public final class Log {
         logWriters.add(new ViewLogWriter(logViewModel));
     }
 
-    public static synchronized void v(String format, Object... args) {
+    public static void v(String format, Object... args) {
         log(Level.V, format, args);
     }
 
-    public static synchronized void d(String format, Object... args) {
+    public static void d(String format, Object... args) {
         log(Level.D, format, args);
     }
 
-    public static synchronized void i(String format, Object... args) {
+    public static void i(String format, Object... args) {
         log(Level.I, format, args);
     }
 
-    public static synchronized void w(String format, Object... args) {
+    public static void w(String format, Object... args) {
         log(Level.W, format, args);
     }
 
-    public static synchronized void e(String format, Object... args) {
+    public static void e(String format, Object... args) {
         log(Level.E, format, args);
     }
 
-    public static synchronized void a(String format, Object... args) {
+    public static void a(String format, Object... args) {
         log(Level.A, format, args);
     }
 
     public static void close() {
         Log.i("Closing Log");
-        for (LogWriter p : logWriters) {
-            if (p instanceof FileLogWriter)
-                ((FileLogWriter) p).close();
+        // Write anything still queued
+        useAsync(0);
+        synchronized (Log.class) {
+            for (LogWriter p : logWriters) {
+                if (p instanceof FileLogWriter)
+                    ((FileLogWriter) p).close();
+            }
         }
     }
 
@@ -108,7 +193,22 @@ public final class Log {
         if (level.value < mMinLevel.value) {
             return;
         }
-        print(level, tag(), format(msg, args));
+        log(tag(), level, msg, args);
+    }
+
+    private static void log(String tag, Level level, String msg, Object[] args) {
+        if (level.value < mMinLevel.value) {
+            return;
+        }
+        AsyncLog a = async;
+        if (a != null)
+            a.offer(level, tag, msg, args);
+        else
+            write(level, tag, msg, args, System.currentTimeMillis());
+    }
+
+    static synchronized void write(Level level, String tag, String msg, Object[] args, long time) {
+        print(level, tag, format(msg, args), time);
     }
 
     private static String format(String fmt, Object... args) {
@@ -141,7 +241,7 @@ public final class Log {
 
     final static int MAX_LOG_LINE_LENGTH = 4000;
 
-    private static void print(Level level, String tag, String msg) {
+    private static void print(Level level, String tag, String msg, long time) {
         for (String line : msg.split("\\n")) {
             do {
                 int splitPos = Math.min(MAX_LOG_LINE_LENGTH, line.length());
@@ -156,7 +256,7 @@ public final class Log {
                 line = line.substring(splitPos);
 
                 for (LogWriter p : logWriters) {
-                    p.append(level, tag, part);
+                    p.append(level, tag, part, time);
                 }
             } while (line.length() > 0);
         }
@@ -166,6 +266,7 @@ public final class Log {
     private final static int MAX_FILENAME_LENGTH = 30;
 
     private static String tag() {
+        if (!callerTags) return DEFAULT_TAG;
         StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         if (stackTrace.length < STACK_DEPTH) {
             throw new IllegalStateException
@@ -24,6 +24,13 @@ import java.time.format.DateTimeFormatter;
 
 interface LogWriter {
     void append(Log.Level level, String tag, String msg);
+
+    /**
+     * @param time When the message was logged, which may be a little before it is written
+     */
+    default void append(Log.Level level, String tag, String msg, long time) {
+        append(level, tag, msg);
+    }
 }
 
 @SuppressWarnings("unused")
@@ -52,11 +59,16 @@ class FileLogWriter implements LogWriter {
     }
 
     public void append(Log.Level level, String tag, String msg) {
+        append(level, tag, msg, System.currentTimeMillis());
+    }
+
+    @Override
+    public void append(Log.Level level, String tag, String msg, long time) {
         try {
             if (bw == null)
                 bw = new BufferedWriter(new FileWriter(file, append));
             synchronized (this) {
-                bw.write(String.format("%s %s/%s %s\r\n", formatter.format(Instant.now()), tag, level, msg));
+                bw.write(String.format("%s %s/%s %s\r\n", formatter.format(Instant.ofEpochMilli(time)), tag, level, msg));
             }
         } catch (Exception e) {
             bw = null;
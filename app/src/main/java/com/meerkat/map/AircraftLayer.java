@@ -28,8 +28,8 @@ import android.graphics.Point;
 
 import androidx.annotation.NonNull;
 
-import com.meerkat.Gps;
 import com.meerkat.MainActivity;
+import com.meerkat.TrackHistory;
 import com.meerkat.Vehicle;
 import com.meerkat.log.Log;
 import com.meerkat.measure.Position;
@@ -37,10 +37,17 @@ import com.meerkat.measure.Position;
 import java.util.List;
 
 public class AircraftLayer extends MapIcon {
+    private static final Log.Tag log = new Log.Tag("AircraftLayer");
     private static final PathEffect historyEffect;
     private static final PathEffect[] predictEffect;
     private static final Paint trackPaint = new Paint();
+    private static final TrackRenderer trackRenderer = new TrackRenderer();
     Vehicle vehicle;
+    // Reused while drawing tracks
+    private final Point aircraftPoint = new Point(), linePoint = new Point();
+    private float[] historyPoints, predictedPoints;
+    // Copy of the vehicle's position taken at the start of each frame, so the whole frame draws the same state
+    private final Position snapshot = new Position("snapshot");
 
     static {
         trackPaint.setStrokeWidth(10);
@@ -59,23 +66,51 @@ public class AircraftLayer extends MapIcon {
         setVisible();
     }
 
-    private Point line(Canvas canvas, Point current, Position p, PathEffect effect) {
-        Point point = MainActivity.mapView.screenPoint(p);
-        if (current.x == point.x && current.y == point.y)
-            return current;
-//        Log.d("%s Alt: %.0f %.0f", vehicle.callsign, p.getAltitude(), Gps.getAltitude());
-        trackPaint.setColor(altColour((int) (p.getAltitude() - Gps.getAltitude()), p.isAirborne()));
+    private void line(Canvas canvas, Projection projection, Point start, Position p, PathEffect effect) {
+        Point point = projection.project(p, linePoint);
+        if (start.x == point.x && start.y == point.y)
+            return;
+//        log.d("%s Alt: %.0f %.0f", vehicle.callsign, p.getAltitude(), projection.getAltitude());
+        trackPaint.setColor(altColour((int) (p.getAltitude() - projection.getAltitude()), p.isAirborne()));
         trackPaint.setPathEffect(effect);
-        canvas.drawLine(current.x, current.y, point.x, point.y, trackPaint);
-        return point;
+        canvas.drawLine(start.x, start.y, point.x, point.y, trackPaint);
     }
 
-    private void polyLine(Canvas canvas, Point start, final List<Position> list, PathEffect effect) {
-        Point current = new Point(start);
+    private void polyLine(Canvas canvas, Projection projection, Point start, final List<Position> list, PathEffect effect) {
         if (list == null || list.size() == 0) return;
-        for (Position p : list) {
-            current = line(canvas, current, p, effect);
+        float[] xy = predictedPoints = projection.project(list, predictedPoints);
+        trackPaint.setPathEffect(effect);
+        trackRenderer.begin(canvas, trackPaint);
+        final double gpsAlt = projection.getAltitude();
+        int x = start.x, y = start.y;
+        for (int i = 0; i < list.size(); i++) {
+            Position p = list.get(i);
+            int nextX = (int) xy[i * 2], nextY = (int) xy[i * 2 + 1];
+            if (x == nextX && y == nextY)
+                continue;
+            trackRenderer.line(x, y, nextX, nextY, altColour((int) (p.getAltitude() - gpsAlt), p.isAirborne()));
+            x = nextX;
+            y = nextY;
+        }
+        trackRenderer.end();
+    }
+
+    // Newest point first, so the track is drawn backwards from the aircraft
+    private void polyLine(Canvas canvas, Projection projection, Point start, final TrackHistory history, PathEffect effect) {
+        float[] xy = historyPoints = projection.project(history, historyPoints);
+        trackPaint.setPathEffect(effect);
+        trackRenderer.begin(canvas, trackPaint);
+        final double gpsAlt = projection.getAltitude();
+        int x = start.x, y = start.y;
+        for (int i = 0; i < history.size(); i++) {
+            int nextX = (int) xy[i * 2], nextY = (int) xy[i * 2 + 1];
+            if (x == nextX && y == nextY)
+                continue;
+            trackRenderer.line(x, y, nextX, nextY, altColour((int) (history.getAltitude(i) - gpsAlt), history.isAirborne(i)));
+            x = nextX;
+            y = nextY;
         }
+        trackRenderer.end();
     }
 
     @Override
@@ -84,36 +119,38 @@ public class AircraftLayer extends MapIcon {
         Position pos;
         if (!this.isVisible() || vehicle.position == null) return;
         synchronized (vehicle.position) {
-            pos = new Position(vehicle.position);
+            snapshot.set(vehicle.position);
         }
+        pos = snapshot;
+        final Projection projection = MainActivity.mapView.projection;
         synchronized (this) {
             track = pos.getTrack();
-            var altDiff = pos.getAltitude() - Gps.getAltitude();
-            var displayAngle = MainActivity.mapView.displayRotation();
+            var altDiff = pos.getAltitude() - projection.getAltitude();
+            var displayAngle = projection.getRotation();
             var iconAngle = !vehicle.emitterType.canRotate || !pos.hasTrack() || isNaN(displayAngle) ? 0 : track - displayAngle;
             super.drawIcon(canvas, pos, vehicle.emitterType.bitmap, iconAngle,
                     altColour(altDiff, pos.isAirborne()),
                     (vehicle.id == ownId) ?
                             altUnits.toString("%,.0f%s", pos.getAltitude()) :
                             vehicle.getLabel() + (isNaN(altDiff) ? "" : ('\n' + altUnits.toString(altDiff))));
-            Log.v("draw %06x %s %s %s", vehicle.id, vehicle.callsign, vehicle.emitterType, pos);
+            if (log.isLoggable(Log.Level.V)) log.v("draw %06x %s %s %s", vehicle.id, vehicle.callsign, vehicle.emitterType, pos);
             // Canvas is already translated so that 0,0 is at the ownShip point
-            Point aircraftPoint = MainActivity.mapView.screenPoint(pos);
+            Point aircraftPoint = projection.project(pos, this.aircraftPoint);
             if (showLinearPredictionTrack && vehicle.predictedPosition != null) {
-                Log.v("%s predict %b %f %f %f", vehicle.callsign, vehicle.predictedPosition.hasAltitude(), vehicle.predictedPosition.getAltitude(), Gps.getAltitude(), vehicle.predictedPosition.heightAboveOwnship());
+                if (log.isLoggable(Log.Level.V)) log.v("%s predict %b %f %f %f", vehicle.callsign, vehicle.predictedPosition.hasAltitude(), vehicle.predictedPosition.getAltitude(), projection.getAltitude(), vehicle.predictedPosition.heightAboveOwnship());
                 synchronized (vehicle.predictedPosition) {
                     if (vehicle.predictedPosition.hasAccuracy()) {
-                        line(canvas, aircraftPoint, vehicle.predictedPosition, predictEffect[vehicle.predictedPosition.hasAltitude() && !Double.isNaN(Gps.getAltitude()) ? 0 : 1]);
+                        line(canvas, projection, aircraftPoint, vehicle.predictedPosition, predictEffect[vehicle.predictedPosition.hasAltitude() && !Double.isNaN(projection.getAltitude()) ? 0 : 1]);
                     }
                 }
             }
 
             if (showPolynomialPredictionTrack && vehicle.predicted.get(0).hasAccuracy()) {
-                polyLine(canvas, aircraftPoint, vehicle.predicted, predictEffect[!Double.isNaN(Gps.getAltitude()) ? 0 : 1]);
+                polyLine(canvas, projection, aircraftPoint, vehicle.predicted, predictEffect[!Double.isNaN(projection.getAltitude()) ? 0 : 1]);
             }
 
             if (historySeconds > 0) {
-                polyLine(canvas, aircraftPoint, vehicle.history, historyEffect);
+                polyLine(canvas, projection, aircraftPoint, vehicle.history, historyEffect);
             }
         }
     }
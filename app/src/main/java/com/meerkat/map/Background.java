@@ -31,23 +31,33 @@ import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.location.Location;
+import android.os.Looper;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.meerkat.Gps;
 import com.meerkat.MainActivity;
 import com.meerkat.Vehicle;
 import com.meerkat.log.Log;
 
+import java.util.ArrayList;
+
 public class Background extends Drawable {
+    private static final Log.Tag log = new Log.Tag("Background");
     private final Paint dangerPaint;
     private final Paint circlePaint;
     private final MapView mapView;
     private final CompassView compassView;
     private final TextView compassText, scaleText;
+    // Values for the compass & scale views, which can only be changed on the UI thread
+    private float compassRotation;
+    private String compassLetter, scale;
+    private int compassColour;
+    private final Runnable updateViews = this::updateViews;
+    // Reused for drawing waypoints
+    private final MapIcon waypointIcon = new MapIcon();
+    private final ArrayList<Cup> visibleWaypoints = new ArrayList<>();
 
     /**
      * @param mapView     mapView that contains this Background
@@ -77,7 +87,7 @@ public class Background extends Drawable {
 
     @Override
     public void draw(@NonNull Canvas canvas) {
-        Log.v("draw background");
+        log.v("draw background");
         canvas.drawColor(Color.WHITE, PorterDuff.Mode.SRC);
 
         Rect bounds = getBounds();
@@ -89,53 +99,71 @@ public class Background extends Drawable {
         canvas.translate(xCentre, yCentre);
         canvas.drawLine(-xCentre, 0, xCentre, 0, circlePaint);
 
+        // The background is drawn first, so this sets up the projection used by all the layers
+        mapView.beginFrame();
+        Projection projection = mapView.projection;
         if (autoZoom) {
             mapView.adjustScaleFactor(canvas.getClipBounds(), MainActivity.vehicleList.getFurthest());
         }
-        float radiusStep = circleRadiusStepMetres * mapView.pixelsPerMetre;
-        Log.v("Radius step = %f", radiusStep);
+        float radiusStep = circleRadiusStepMetres * projection.getPixelsPerMetre();
+        if (log.isLoggable(Log.Level.V)) log.v("Radius step = %f", radiusStep);
         if (radiusStep > 5)
             for (float rad = radiusStep; rad < bounds.height(); rad += radiusStep) {
                 canvas.drawCircle(0, 0, rad, circlePaint);
             }
 
-        if (useCupFile) {
-            var gpsPos = new Location("gps");
-            Gps.getLatLonAltTime(gpsPos);
-            if (gpsPos.hasAccuracy())
-                for (var p : MainActivity.groundLocations) {
-                    var distance = Gps.distanceTo(p);
-                    if (Float.isNaN(distance) || distance > screenWidthMetres) continue;
-                    new MapIcon().drawIcon(canvas, p, GroundIcon.Icons.values()[p.style].bitmap, Float.NaN, Color.BLACK, p.getLabel());
-                }
+        if (useCupFile && projection.isValid()) {
+            // Nothing further away than the screen diagonal can be visible
+            double radius = Math.min(screenWidthMetres, Math.hypot(bounds.width(), bounds.height()) / projection.getPixelsPerMetre());
+            MainActivity.groundLocations.query(projection.getOwnShip().getLatitude(), projection.getOwnShip().getLongitude(), radius, visibleWaypoints);
+            for (var p : visibleWaypoints)
+                waypointIcon.drawIcon(canvas, p, GroundIcon.Icons.values()[p.style].bitmap, Float.NaN, Color.BLACK, p.getLabel());
         }
         var prevMode = displayOrientation;
-        float rot = -mapView.displayRotation();
+        float rot = -projection.getRotation();
         String compassLetter = displayOrientation.toString().substring(0, 1);
-        if (prevMode == displayOrientation) {
-            compassText.setTextColor(Color.BLACK);
-        } else {
+        int compassColour = Color.BLACK;
+        if (prevMode != displayOrientation) {
             compassLetter += "/" + prevMode;
-            compassText.setTextColor(Color.RED);
+            compassColour = Color.RED;
         }
-        compassView.setRotation(rot);
-        compassText.setText(compassLetter);
-
         // Arrows either side of screen width
-        scaleText.setText(String.format("\u27f8 %s  \u27f9", distanceUnits.toString(bounds.width() / mapView.pixelsPerMetre)));
+        String scale = String.format("\u27f8 %s  \u27f9", distanceUnits.toString(bounds.width() / projection.getPixelsPerMetre()));
+        synchronized (updateViews) {
+            boolean changed = rot != compassRotation || compassColour != this.compassColour ||
+                    !compassLetter.equals(this.compassLetter) || !scale.equals(this.scale);
+            compassRotation = rot;
+            this.compassColour = compassColour;
+            this.compassLetter = compassLetter;
+            this.scale = scale;
+            if (Looper.myLooper() == Looper.getMainLooper())
+                updateViews();
+            else if (changed)
+                mapView.post(updateViews);
+        }
+
         Vehicle nearest = MainActivity.vehicleList.getNearest();
         if (nearest == null) return;
         int thickness = (int) (nearest.distance <= dangerRadiusMetres ? dangerRadiusMetres / 2f :
                 dangerRadiusMetres * 10 / nearest.distance);
-        if (thickness >= dangerRadiusMetres * mapView.pixelsPerMetre)
-            thickness = (int) (dangerRadiusMetres * mapView.pixelsPerMetre);
-        Log.v("Nearest = %s %.0f, %d, thickness = %d", nearest.callsign, nearest.distance, dangerRadiusMetres, thickness);
+        if (thickness >= dangerRadiusMetres * projection.getPixelsPerMetre())
+            thickness = (int) (dangerRadiusMetres * projection.getPixelsPerMetre());
+        if (log.isLoggable(Log.Level.V)) log.v("Nearest = %s %.0f, %d, thickness = %d", nearest.callsign, nearest.distance, dangerRadiusMetres, thickness);
         if (thickness > 0) {
             dangerPaint.setColor(Color.YELLOW);
             dangerPaint.setStrokeWidth(thickness);
-            canvas.drawCircle(0, 0, dangerRadiusMetres * mapView.pixelsPerMetre, dangerPaint);
+            canvas.drawCircle(0, 0, dangerRadiusMetres * projection.getPixelsPerMetre(), dangerPaint);
+        }
+        log.v("finished draw background");
+    }
+
+    private void updateViews() {
+        synchronized (updateViews) {
+            compassView.setRotation(compassRotation);
+            compassText.setTextColor(compassColour);
+            compassText.setText(compassLetter);
+            scaleText.setText(scale);
         }
-        Log.v("finished draw background");
     }
 
     @Override
@@ -84,8 +84,11 @@ public class Cup extends Location {
      * Longitude is denoted by DDDMM.mmmE
      * The ellipsoid used is WGS-1984
      */
+    private static final Pattern dm = Pattern.compile("([+-]?)(\\d*)([0-5]\\d\\.\\d*)([NSEW]?)");
+    private static final Pattern alt = Pattern.compile("([+-]?\\d*(?:\\.\\d*)?)(ft|m)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern dist = Pattern.compile("([+-]?\\d*(?:\\.\\d*)?)(ft|m|km|nm)", Pattern.CASE_INSENSITIVE);
+
     private double DegreesMinutes(String s) {
-        final Pattern dm = Pattern.compile("([+-]?)(\\d*)([0-5]\\d\\.\\d*)([NSEW]?)");
         Matcher m = dm.matcher(s);
         if (!m.find()) {
             Log.e("Invalid degrees/minutes string %s", s);
@@ -102,7 +105,6 @@ public class Cup extends Location {
 
     private double Alt(String s) {
         if (s.isBlank()) return NaN;
-        final Pattern alt = Pattern.compile("([+-]?\\d*(?:\\.\\d*)?)(ft|m)", Pattern.CASE_INSENSITIVE);
         Matcher m = alt.matcher(s);
         if (!m.find()) {
             Log.e("Invalid altitude string %s", s);
@@ -117,8 +119,7 @@ public class Cup extends Location {
 
     private double Distance(String s) {
         if (s.isBlank()) return NaN;
-        final Pattern alt = Pattern.compile("([+-]?\\d*(?:\\.\\d*)?)(ft|m|km|nm)", Pattern.CASE_INSENSITIVE);
-        Matcher m = alt.matcher(s);
+        Matcher m = dist.matcher(s);
         if (!m.find()) {
             Log.e("Invalid distance string %s", s);
             return NaN;
@@ -193,6 +194,26 @@ public class Cup extends Location {
         }
     }
 
+    /**
+     * Waypoint with already parsed values, e.g. from the binary cache
+     */
+    Cup(String name, String code, String country, double lat, double lon, double alt, int style, int runwayDir, float runwayLen, String frequency, String description) {
+        super("Cup");
+        this.name = name;
+        this.code = code;
+        this.country = country;
+        setLatitude(lat);
+        setLongitude(lon);
+        setAccuracy(20);
+        setAltitude(alt);
+        setVerticalAccuracyMeters(20);
+        this.style = style;
+        this.runwayDir = runwayDir;
+        this.runwayLen = runwayLen;
+        this.frequency = frequency;
+        this.description = description;
+    }
+
     public enum Label {
         Code,
         Name,
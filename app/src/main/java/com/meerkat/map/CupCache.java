@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import com.meerkat.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compiled binary copy of a .cup waypoint file, so that the waypoints don't have to be parsed every time the app
+ * starts.
+ * <p>
+ * The cache is written next to the .cup file after it has been parsed, and is rebuilt whenever the .cup file's
+ * modification time or length changes. It is memory-mapped when loaded: only the coordinates are read up front to
+ * build the WaypointIndex, and each Cup is created from its record the first time it is drawn.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * Header:  int magic, int version, long source modified time, long source length, int count, int string table offset
+ * Records: count fixed-size records, sorted by WaypointIndex cell
+ *          double lat, double lon, float alt, float runway length, int style, int runway direction,
+ *          int name, int code, int country, int frequency, int description (string table offsets, -1 if null)
+ * Strings: int byte length followed by UTF-8 bytes, each distinct string stored once
+ * </pre>
+ */
+public class CupCache {
+    private static final int MAGIC = 0x4d4b5750; // "MKWP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 4 + 4 + 4 + 5 * 4;
+
+    /**
+     * Creates a waypoint from its cached values. Normally Cup::new, but tests can't create a real Cup
+     */
+    interface Factory {
+        Cup create(String name, String code, String country, double lat, double lon, double alt, int style,
+                   int runwayDir, float runwayLen, String frequency, String description);
+    }
+
+    /**
+     * Load waypoints from the cache for a .cup file, creating or rebuilding the cache first if necessary
+     *
+     * @param cupFile .cup file
+     * @return Index of the waypoints, empty if there are none
+     */
+    public static WaypointIndex load(File cupFile) {
+        File cacheFile = new File(cupFile.getPath() + ".bin");
+        if (!cupFile.exists()) {
+            Log.e("Cup file not found: %s", cupFile.getAbsolutePath());
+            return new WaypointIndex(new ArrayList<>());
+        }
+        if (cacheFile.exists()) {
+            try {
+                WaypointIndex index = map(cacheFile, cupFile.lastModified(), cupFile.length());
+                if (index != null) {
+                    Log.i("Loaded %d waypoints from %s", index.size(), cacheFile.getPath());
+                    return index;
+                }
+                Log.i("Waypoint cache %s is out of date", cacheFile.getPath());
+            } catch (IOException | RuntimeException e) {
+                Log.e("Waypoint cache %s invalid: %s", cacheFile.getPath(), e.getMessage());
+            }
+        }
+        WaypointIndex index = new WaypointIndex(Cup.readFile(cupFile));
+        try {
+            write(cacheFile, index, cupFile.lastModified(), cupFile.length());
+            Log.i("Wrote %d waypoints to %s", index.size(), cacheFile.getPath());
+        } catch (IOException e) {
+            Log.e("Failed to write waypoint cache %s: %s", cacheFile.getPath(), e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            cacheFile.delete();
+        }
+        return index;
+    }
+
+    /**
+     * @return Index backed by the mapped cache file, or null if the cache doesn't match the source file
+     */
+    static WaypointIndex map(File cacheFile, long sourceModified, long sourceLength) throws IOException {
+        return map(cacheFile, sourceModified, sourceLength, Cup::new);
+    }
+
+    static WaypointIndex map(File cacheFile, long sourceModified, long sourceLength, Factory factory) throws IOException {
+        final MappedByteBuffer buf;
+        try (var raf = new RandomAccessFile(cacheFile, "r"); FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+            throw new IOException("bad header");
+        if (buf.getLong(8) != sourceModified || buf.getLong(16) != sourceLength)
+            return null;
+        int count = buf.getInt(24);
+        int strings = buf.getInt(28);
+        if (count < 0 || strings != HEADER_SIZE + (long) count * RECORD_SIZE || strings > buf.capacity())
+            throw new IOException("bad record count");
+        // Records are read lazily while drawing, so check every string reference now rather than failing then
+        int tableSize = buf.capacity() - strings;
+        for (int i = 0; i < count; i++) {
+            for (int pos = HEADER_SIZE + i * RECORD_SIZE + 32; pos < HEADER_SIZE + (i + 1) * RECORD_SIZE; pos += 4) {
+                int offset = buf.getInt(pos);
+                if (offset == -1) continue;
+                if (offset < 0 || offset > tableSize - 4)
+                    throw new IOException("bad string offset in record " + i);
+                int length = buf.getInt(strings + offset);
+                if (length < 0 || length > tableSize - 4 - offset)
+                    throw new IOException("bad string length in record " + i);
+            }
+        }
+        return new WaypointIndex(count,
+                i -> buf.getDouble(HEADER_SIZE + i * RECORD_SIZE),
+                i -> buf.getDouble(HEADER_SIZE + i * RECORD_SIZE + 8),
+                i -> read(buf, HEADER_SIZE + i * RECORD_SIZE, strings, factory));
+    }
+
+    private static Cup read(ByteBuffer buf, int pos, int strings, Factory factory) {
+        return factory.create(string(buf, strings, buf.getInt(pos + 32)),
+                string(buf, strings, buf.getInt(pos + 36)),
+                string(buf, strings, buf.getInt(pos + 40)),
+                buf.getDouble(pos), buf.getDouble(pos + 8), buf.getFloat(pos + 16),
+                buf.getInt(pos + 24), buf.getInt(pos + 28), buf.getFloat(pos + 20),
+                string(buf, strings, buf.getInt(pos + 44)),
+                string(buf, strings, buf.getInt(pos + 48)));
+    }
+
+    private static String string(ByteBuffer buf, int strings, int offset) {
+        if (offset < 0) return null;
+        ByteBuffer b = buf.duplicate();
+        b.position(strings + offset);
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void write(File cacheFile, WaypointIndex index, long sourceModified, long sourceLength) throws IOException {
+        var stringOffsets = new HashMap<String, Integer>();
+        var stringTable = new ByteArrayOutputStream();
+        var table = new DataOutputStream(stringTable);
+        int count = index.size();
+        // Write to a temporary file, so that a partly written cache is never mistaken for a good one
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceModified);
+            out.writeLong(sourceLength);
+            out.writeInt(count);
+            out.writeInt(HEADER_SIZE + count * RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                Cup c = index.get(i);
+                out.writeDouble(c.getLatitude());
+                out.writeDouble(c.getLongitude());
+                out.writeFloat((float) c.getAltitude());
+                out.writeFloat(c.runwayLen);
+                out.writeInt(c.style);
+                out.writeInt(c.runwayDir);
+                for (String s : new String[]{c.name, c.code, c.country, c.frequency, c.description}) {
+                    if (s == null) {
+                        out.writeInt(-1);
+                        continue;
+                    }
+                    Integer offset = stringOffsets.get(s);
+                    if (offset == null) {
+                        offset = table.size();
+                        stringOffsets.put(s, offset);
+                        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                        table.writeInt(bytes.length);
+                        table.write(bytes);
+                    }
+                    out.writeInt(offset);
+                }
+            }
+            stringTable.writeTo(out);
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("rename failed");
+        }
+    }
+}
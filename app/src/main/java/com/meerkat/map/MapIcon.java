@@ -26,6 +26,8 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
@@ -37,9 +39,19 @@ import com.meerkat.MainActivity;
 import com.meerkat.log.Log;
 
 public class MapIcon extends Drawable {
+    private static final Log.Tag log = new Log.Tag("MapIcon");
     protected static final Paint textPaint = new Paint(Color.BLACK);
     protected static final Paint whitePaint = new Paint(Color.WHITE);
+    // Icons are drawn in a single colour by tinting their opaque pixels as they are drawn. Only used on the drawing thread
+    private static final Paint iconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // Tint filters, indexed by colour quantized to 4 bits each of red, green and blue. altColour() then only produces a
+    // few dozen distinct colours, and each has its own slot
+    private static final int FILTER_CACHE_SIZE = 1 << 12;
+    private static final int[] filterColours = new int[FILTER_CACHE_SIZE];
+    private static final PorterDuffColorFilter[] filters = new PorterDuffColorFilter[FILTER_CACHE_SIZE];
     protected final Rect bounds;
+    // Reused for the icon's screen position
+    private final Point iconPoint = new Point();
 
     static {
         textPaint.setStyle(Paint.Style.FILL);
@@ -51,7 +63,7 @@ public class MapIcon extends Drawable {
 
     public void setVisible() {
         setVisible(true, true);
-        MainActivity.mapView.layers.invalidateDrawable(this);
+        MainActivity.mapView.refresh(null);
     }
 
     public MapIcon() {
@@ -68,44 +80,41 @@ public class MapIcon extends Drawable {
         return 0xff000000 | R << 16 | BG << (altDifference > 0 ? 0 : 8);
     }
 
-    private Bitmap replaceColor(Bitmap src, int targetColor) {
-        if (src == null) {
-            return null;
-        }
-        // Source image size
-        int width = src.getWidth();
-        int height = src.getHeight();
-        int[] pixels = new int[width * height];
-        //get pixels
-        src.getPixels(pixels, 0, width, 0, 0, width, height);
-
-        for (int x = 0; x < pixels.length; ++x) {
-            pixels[x] = (pixels[x] != Color.TRANSPARENT) ? targetColor : pixels[x];
+    // Keep the high 4 bits of each channel, so e.g. 0xff stays 0xff and 0x00 stays 0x00
+    static int quantize(int colour) {
+        return colour & 0xfff0f0f0 | (colour >> 4) & 0x0f0f0f;
+    }
+
+    // Paint that draws every non-transparent pixel of a bitmap in the given colour
+    private static Paint tint(int colour) {
+        colour = quantize(colour);
+        int i = (colour >> 12) & 0xf00 | (colour >> 8) & 0xf0 | (colour >> 4) & 0x0f;
+        // Only the alpha can differ from the cached colour
+        if (filters[i] == null || filterColours[i] != colour) {
+            filters[i] = new PorterDuffColorFilter(colour, PorterDuff.Mode.SRC_IN);
+            filterColours[i] = colour;
         }
-        // create result bitmap output
-        Bitmap result = Bitmap.createBitmap(width, height, src.getConfig());
-        //set pixels
-        result.setPixels(pixels, 0, width, 0, 0, width, height);
-        return result;
+        iconPaint.setColorFilter(filters[i]);
+        return iconPaint;
     }
 
     public void draw(@NonNull Canvas canvas) {
-        Log.a("MapIcon.draw(canvas) called");
+        log.a("MapIcon.draw(canvas) called");
     }
 
     public void drawIcon(@NonNull Canvas canvas, Location location, Bitmap icon, float iconAngle, int colour, String text) {
         synchronized (this) {
             // Canvas is already translated so that 0,0 is at the ownShip point
             Rect clipBounds = canvas.getClipBounds();
-            Point aircraftPoint = MainActivity.mapView.screenPoint(location);
+            Point aircraftPoint = MainActivity.mapView.projection.project(location, iconPoint);
             // Draw the icon if part of it is visible
             var bmpWidth = icon.getWidth();
             var bmpHeight = icon.getHeight();
             bounds.set(aircraftPoint.x - bmpWidth / 2, aircraftPoint.y - bmpHeight / 2, aircraftPoint.x + bmpWidth / 2, aircraftPoint.y + bmpHeight / 2);
             if (bounds.right > clipBounds.left && bounds.left < clipBounds.right && bounds.bottom > clipBounds.top && bounds.top < clipBounds.bottom) {
-                canvas.drawBitmap(replaceColor(icon, colour),
+                canvas.drawBitmap(icon,
                         positionMatrix(bmpWidth / 2, bmpHeight / 2, aircraftPoint.x, aircraftPoint.y,
-                                iconAngle), null);
+                                iconAngle), tint(colour));
                 int lineHeight = (int) (textPaint.getTextSize() + 1);
                 // Display absolute altitude next to ownShip, callsign & relative altitude next to others
                 drawText(canvas, aircraftPoint, lineHeight, text, clipBounds, bmpWidth);
@@ -126,7 +135,7 @@ public class MapIcon extends Drawable {
 
     protected void drawText(Canvas canvas, final Point aircraftPos, int textHeight, String text, Rect clipBounds, int bmpWidth) {
         var textLines = text.split("\\n");
-        Log.v("drawText: " + String.join(", ", textLines));
+        if (log.isLoggable(Log.Level.V)) log.v("drawText: " + String.join(", ", textLines));
         float textWidth = 0;
         for (var s : textLines) {
             textWidth = Math.max(textWidth, textPaint.measureText(s));
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import static com.meerkat.ui.settings.SettingsViewModel.maxFps;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.drawable.LayerDrawable;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import androidx.annotation.NonNull;
+
+import com.meerkat.log.Log;
+
+/**
+ * Draws the map layers on a render thread of its own, instead of on the UI thread.
+ * <p>
+ * requestFrame() may be called from any thread, as often as it likes: requests arriving while a frame is waiting or
+ * being drawn are merged into the next frame. Frames are limited to maxFps, and posting a frame blocks until the
+ * display can take it, so at most one frame is drawn per vsync.
+ */
+public class MapSurface extends SurfaceView implements SurfaceHolder.Callback {
+    private LayerDrawable layers;
+    private volatile RenderThread renderThread;
+
+    public MapSurface(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        getHolder().addCallback(this);
+    }
+
+    void setLayers(LayerDrawable layers) {
+        this.layers = layers;
+    }
+
+    public void requestFrame() {
+        RenderThread t = renderThread;
+        if (t != null) t.request();
+    }
+
+    @Override
+    public void surfaceCreated(@NonNull SurfaceHolder holder) {
+        renderThread = new RenderThread(holder);
+        renderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
+        synchronized (layers) {
+            layers.setBounds(0, 0, width, height);
+        }
+        requestFrame();
+    }
+
+    @Override
+    public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
+        RenderThread t = renderThread;
+        renderThread = null;
+        if (t == null) return;
+        // The surface must not be used after this returns
+        t.quit();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            // Do nothing
+        }
+    }
+
+    private class RenderThread extends Thread {
+        private final SurfaceHolder holder;
+        private boolean requested = true;
+        private boolean running = true;
+        private long frames, requests;
+
+        RenderThread(SurfaceHolder holder) {
+            super("Map render");
+            this.holder = holder;
+        }
+
+        synchronized void request() {
+            requests++;
+            requested = true;
+            notify();
+        }
+
+        synchronized void quit() {
+            running = false;
+            notify();
+        }
+
+        @Override
+        public void run() {
+            long nextFrame = 0;
+            while (true) {
+                try {
+                    synchronized (this) {
+                        while (running && !requested) wait();
+                        if (!running) break;
+                    }
+                    long wait = nextFrame - System.nanoTime();
+                    if (wait > 0)
+                        //noinspection BusyWait
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    break;
+                }
+                synchronized (this) {
+                    // Anything requested from here on needs another frame
+                    requested = false;
+                }
+                nextFrame = System.nanoTime() + 1000000000L / Math.max(1, maxFps);
+                Canvas canvas = holder.lockCanvas();
+                if (canvas == null) continue;
+                try {
+                    // Layers are added & reused by other threads while holding this lock
+                    synchronized (layers) {
+                        layers.draw(canvas);
+                    }
+                } catch (Exception ex) {
+                    Log.e("Exception drawing map: %s", ex.getMessage());
+                } finally {
+                    holder.unlockCanvasAndPost(canvas);
+                }
+                frames++;
+            }
+            Log.i("Map render thread stopped: %d frames drawn for %d requests", frames, requests);
+        }
+    }
+}
@@ -20,10 +20,8 @@ import static com.meerkat.ui.settings.SettingsViewModel.screenWidthMetres;
 import static com.meerkat.ui.settings.SettingsViewModel.screenYPosPercent;
 import static com.meerkat.ui.settings.SettingsViewModel.showLinearPredictionTrack;
 import static com.meerkat.ui.settings.SettingsViewModel.showPolynomialPredictionTrack;
-import static java.lang.Math.cos;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
-import static java.lang.Math.sin;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -44,12 +42,14 @@ import androidx.annotation.Nullable;
 import com.meerkat.Compass;
 import com.meerkat.Gps;
 import com.meerkat.Vehicle;
+import com.meerkat.VirtualClock;
 import com.meerkat.log.Log;
 import com.meerkat.measure.Position;
 
 import java.time.Instant;
 
 public class MapView extends androidx.appcompat.widget.AppCompatImageView {
+    private static final Log.Tag log = new Log.Tag("MapView");
 
     public enum DisplayOrientation {NorthUp, TrackUp, HeadingUp}
 
@@ -58,10 +58,17 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
     float pixelsPerMetre;
     // Used to detect pinch zoom gesture.
     private final ScaleGestureDetector scaleGestureDetector = new ScaleGestureDetector(getContext(), new PinchListener());
+    // If set, the layers are drawn by this surface's render thread instead of by this view
+    private MapSurface surface;
+    // Merges refresh requests into at most one redraw per frame
+    public final RefreshScheduler refreshScheduler = new RefreshScheduler(this::redraw);
+    // Screen projection for the frame being drawn
+    final Projection projection = new Projection();
+    private final Location ownShip = new Location("gps");
 
     public MapView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
-        Log.d("createView");
+        log.d("createView");
         // Dispatch activity on touch event to the scale gesture detector.
         OnTouchListener handleTouch = (view, event) -> {
             this.performClick();
@@ -81,7 +88,23 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
         }
         layers = new LayerDrawable(new Drawable[]{});
         setImageDrawable(layers);
-        Log.d("finished creating");
+        log.d("finished creating");
+    }
+
+    /**
+     * Draw the layers on the given surface's render thread, rather than on the UI thread. This view is then only used
+     * for gestures.
+     */
+    public void setSurface(MapSurface surface) {
+        this.surface = surface;
+        surface.setLayers(layers);
+        setImageDrawable(null);
+        surface.requestFrame();
+    }
+
+    // May be called while drawing, i.e. not on the UI thread
+    private void toast(String text, int duration) {
+        post(() -> Toast.makeText(getContext(), text, duration).show());
     }
 
     //get width screen
@@ -105,22 +128,22 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             if (!Float.isNaN(rot)) {
                 if (currentMode != displayOrientation) {
                     currentMode = displayOrientation;
-                    Toast.makeText(getContext(), "Heading information regained", Toast.LENGTH_SHORT).show();
+                    toast("Heading information regained", Toast.LENGTH_SHORT);
                 }
                 return rot;
             }
             rot = Gps.getTrack();
             if (!Float.isNaN(rot)) {
                 if (currentMode == DisplayOrientation.HeadingUp) {
-                    Toast.makeText(getContext(), "Heading lost, Tracking", Toast.LENGTH_LONG).show();
+                    toast("Heading lost, Tracking", Toast.LENGTH_LONG);
                 } else if (currentMode == DisplayOrientation.NorthUp) {
-                    Toast.makeText(getContext(), "Tracking recovered", Toast.LENGTH_SHORT).show();
+                    toast("Tracking recovered", Toast.LENGTH_SHORT);
                 }
                 currentMode = DisplayOrientation.TrackUp;
                 return rot;
             }
             if (currentMode != DisplayOrientation.NorthUp) {
-                Toast.makeText(getContext(), (currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking") + " lost", Toast.LENGTH_LONG).show();
+                toast((currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking") + " lost", Toast.LENGTH_LONG);
                 currentMode = DisplayOrientation.NorthUp;
             }
             return 0;
@@ -130,7 +153,7 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             rot = Gps.getTrack();
             if (!Float.isNaN(rot)) {
                 if (currentMode != DisplayOrientation.TrackUp) {
-                    Toast.makeText(getContext(), "Tracking recovered", Toast.LENGTH_SHORT).show();
+                    toast("Tracking recovered", Toast.LENGTH_SHORT);
                     currentMode = DisplayOrientation.TrackUp;
                 }
                 return rot;
@@ -138,20 +161,20 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             rot = Compass.degTrue();
             if (!Float.isNaN(rot)) {
                 if (currentMode != DisplayOrientation.HeadingUp) {
-                    Toast.makeText(getContext(), currentMode == DisplayOrientation.NorthUp ? "Heading recovered" : "Tracking lost", Toast.LENGTH_SHORT).show();
+                    toast(currentMode == DisplayOrientation.NorthUp ? "Heading recovered" : "Tracking lost", Toast.LENGTH_SHORT);
                     currentMode = DisplayOrientation.HeadingUp;
                 }
                 return rot;
             }
             if (currentMode != DisplayOrientation.NorthUp) {
-                Toast.makeText(getContext(), (currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking") + " lost", Toast.LENGTH_LONG).show();
+                toast((currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking") + " lost", Toast.LENGTH_LONG);
                 currentMode = DisplayOrientation.NorthUp;
             }
             return 0;
         }
         // displayOrientation == DisplayOrientation.TrackUp
         if (currentMode != DisplayOrientation.NorthUp) {
-            Log.e("North Up selected, but currently %s", currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking");
+            log.e("North Up selected, but currently %s", currentMode == DisplayOrientation.HeadingUp ? "Heading" : "Tracking");
             currentMode = DisplayOrientation.NorthUp;
         }
         return 0;
@@ -173,21 +196,34 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
         return bitmap;
     }
 
-    // Avoid constructing
-    public Point screenPoint(Location p) {
-        var distance = Gps.distanceTo(p);
-        var bearing = Gps.bearingTo(p);
-        double b = Position.bearingToRad(bearing - displayRotation());
-        // new point is relative to (0, 0) of the canvas, which is at the ownShip position
-        return new Point((int) (cos(b) * distance * pixelsPerMetre), (int) (-sin(b) * distance * pixelsPerMetre));
+    /**
+     * Capture the ownShip position, display rotation & scale used to draw this frame. Called by the first layer drawn.
+     */
+    void beginFrame() {
+        Gps.getLatLonAltTime(ownShip);
+        projection.begin(ownShip, displayRotation(), pixelsPerMetre);
     }
 
+    /**
+     * Mark the map as needing a redraw. May be called from any thread; the redraw happens on the next frame.
+     */
     public void refresh(AircraftLayer layer) {
-//        Log.d("Refresh %s", layer == null ? "ALL" : layer.vehicle.callsign);
-        if (layer == null)
-            layers.invalidateSelf();
+//        log.d("Refresh %s", layer == null ? "ALL" : layer.vehicle.callsign);
+        refreshScheduler.request();
+    }
+
+    // Every layer is drawn anyway, so there's no point invalidating just the one that changed
+    private void redraw() {
+        if (surface != null)
+            surface.requestFrame();
         else
-            layers.invalidateDrawable(layer);
+            layers.invalidateSelf();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        log.i("Map redraws: %d requested, %d performed", refreshScheduler.getRequested(), refreshScheduler.getPerformed());
     }
 
     /* This listener is used to listen pinch zoom gesture. */
@@ -199,7 +235,7 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             double scalefactor = detector.getScaleFactor();
             if (scalefactor == 1.0) return false;
             pixelsPerMetre *= scalefactor;
-//            Log.i("Scale factor = %f", scalefactor);
+//            log.i("Scale factor = %f", scalefactor);
             if (pixelsPerMetre < minPixelsPerMetre)
                 pixelsPerMetre = minPixelsPerMetre;
             if (pixelsPerMetre > maxPixelsPerMetre)
@@ -232,7 +268,7 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             extend(furthestPoint, furthest.predictedPosition);
         if (showPolynomialPredictionTrack)
             extend(furthestPoint, furthest.predicted.get(furthest.predicted.size() - 1));
-        Log.v("Furthest (%d, %d) %s", furthestPoint.x, furthestPoint.y, furthest);
+        if (log.isLoggable(Log.Level.V)) log.v("Furthest (%d, %d) %s", furthestPoint.x, furthestPoint.y, furthest);
 
         // Both points can't be 0 because then furthest.distance must be < minZoom
         if (furthestPoint.x == 0) {
@@ -240,16 +276,16 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
             return pixelsPerMetre * (float) (bounds.top + 32) / furthestPoint.y;
         }
         float xScale = (float) (bounds.right - 32) / furthestPoint.x;
-        Log.v("xScale: %f", xScale);
+        if (log.isLoggable(Log.Level.V)) log.v("xScale: %f", xScale);
         if (furthestPoint.y == 0) return pixelsPerMetre * xScale;
         float yScale = (float) (bounds.bottom - 32) / furthestPoint.y;
-        Log.v("xScale %f yScale %f", xScale, yScale);
+        if (log.isLoggable(Log.Level.V)) log.v("xScale %f yScale %f", xScale, yScale);
         return pixelsPerMetre * (min(xScale, yScale));
     }
 
     private void extend(Point furthest, Position pos) {
         if (pos == null || !pos.hasAccuracy()) return;
-        Point p = screenPoint(pos);
+        Point p = projection.project(pos, new Point());
         // Screen size is symmetric around vertical axis
         if (Math.abs(p.x) > furthest.x) furthest.x = Math.abs(p.x);
         // Scale negative Y coordinates so that a negative value at the top edge of the screen maps to the bottom edge of the screen
@@ -268,12 +304,13 @@ public class MapView extends androidx.appcompat.widget.AppCompatImageView {
      */
     void adjustScaleFactor(Rect bounds, Vehicle furthest) {
         if (furthest == null) return;
-        Instant now = Instant.now();
+        Instant now = VirtualClock.instant();
         if (previousFurthest > furthest.distance || now.isAfter(nextZoomAllowed)) {
             nextZoomAllowed = now.plusSeconds(5);
             previousFurthest = furthest.distance;
             float newScale = updateScaleFactor(bounds, furthest);
             pixelsPerMetre = Math.max(minPixelsPerMetre, Math.min(newScale, maxPixelsPerMetre));
+            projection.setScale(pixelsPerMetre);
         }
     }
 }
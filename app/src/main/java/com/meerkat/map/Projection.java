@@ -0,0 +1,160 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import android.graphics.Point;
+import android.location.Location;
+
+import com.meerkat.TrackHistory;
+
+import java.util.List;
+
+/**
+ * Maps latitude & longitude to screen coordinates for one frame.
+ * <p>
+ * The ownShip position, altitude, display rotation and scale are captured once at the start of the frame, after
+ * which projecting a point is a handful of multiplications: no locking, no allocation, no ellipsoid. Points are
+ * projected onto a plane tangent to the earth at ownShip (equirectangular), which is plenty accurate over the
+ * distances shown on the map. Screen coordinates are relative to ownShip at (0, 0), with y increasing downwards.
+ * <p>
+ * Only used by the thread drawing the map.
+ */
+public class Projection {
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private final Location ownShip = new Location("projection");
+    private boolean valid;
+    private double lat0, lon0, cosLat, altitude;
+    private float rotation, pixelsPerMetre;
+    // Screen pixels per degree of latitude & longitude, in each screen axis
+    private double xLat, xLon, yLat, yLon;
+
+    /**
+     * Start a new frame
+     *
+     * @param rotation       Display rotation, degrees true of the top of the screen
+     * @param pixelsPerMetre Scale
+     */
+    void begin(Location ownShip, float rotation, float pixelsPerMetre) {
+        this.ownShip.set(ownShip);
+        valid = ownShip.hasAccuracy();
+        lat0 = ownShip.getLatitude();
+        lon0 = ownShip.getLongitude();
+        cosLat = Math.cos(Math.toRadians(lat0));
+        altitude = ownShip.hasAltitude() ? ownShip.getAltitude() : Double.NaN;
+        this.rotation = rotation;
+        setScale(pixelsPerMetre);
+    }
+
+    /**
+     * Change the scale, e.g. after auto zoom, without changing anything else
+     */
+    void setScale(float pixelsPerMetre) {
+        this.pixelsPerMetre = pixelsPerMetre;
+        double r = Math.toRadians(rotation);
+        double sinR = Math.sin(r), cosR = Math.cos(r);
+        double perDegree = METRES_PER_DEGREE * pixelsPerMetre;
+        xLon = cosLat * perDegree * cosR;
+        xLat = -perDegree * sinR;
+        yLon = -cosLat * perDegree * sinR;
+        yLat = -perDegree * cosR;
+    }
+
+    /**
+     * @return false if there was no ownShip position at the start of the frame, in which case every point is at (0, 0)
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public Location getOwnShip() {
+        return ownShip;
+    }
+
+    /**
+     * @return ownShip altitude, or NaN if not known
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public float getRotation() {
+        return rotation;
+    }
+
+    public float getPixelsPerMetre() {
+        return pixelsPerMetre;
+    }
+
+    private double dLon(double lon) {
+        double d = lon - lon0;
+        if (d > 180) d -= 360;
+        else if (d < -180) d += 360;
+        return d;
+    }
+
+    public float x(double lat, double lon) {
+        if (!valid) return 0;
+        return (float) (dLon(lon) * xLon + (lat - lat0) * xLat);
+    }
+
+    public float y(double lat, double lon) {
+        if (!valid) return 0;
+        return (float) (dLon(lon) * yLon + (lat - lat0) * yLat);
+    }
+
+    /**
+     * @param dest Point to set, to avoid allocation
+     */
+    public Point project(double lat, double lon, Point dest) {
+        dest.set((int) x(lat, lon), (int) y(lat, lon));
+        return dest;
+    }
+
+    public Point project(Location p, Point dest) {
+        return project(p.getLatitude(), p.getLongitude(), dest);
+    }
+
+    /**
+     * Project a list of points into consecutive x, y pairs.
+     *
+     * @param dest Array to fill, which is replaced by a larger one if it is too small
+     * @return dest, or its replacement
+     */
+    public float[] project(List<? extends Location> points, float[] dest) {
+        int n = points.size();
+        if (dest == null || dest.length < n * 2)
+            dest = new float[Math.max(n, 16) * 2];
+        for (int i = 0; i < n; i++) {
+            Location p = points.get(i);
+            dest[i * 2] = x(p.getLatitude(), p.getLongitude());
+            dest[i * 2 + 1] = y(p.getLatitude(), p.getLongitude());
+        }
+        return dest;
+    }
+
+    /**
+     * As project(List, float[]), for a history track
+     */
+    public float[] project(TrackHistory history, float[] dest) {
+        int n = history.size();
+        if (dest == null || dest.length < n * 2)
+            dest = new float[Math.max(n, 16) * 2];
+        for (int i = 0; i < n; i++) {
+            double lat = history.getLatitude(i), lon = history.getLongitude(i);
+            dest[i * 2] = x(lat, lon);
+            dest[i * 2 + 1] = y(lat, lon);
+        }
+        return dest;
+    }
+}
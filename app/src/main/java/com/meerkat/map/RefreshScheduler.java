@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import static com.meerkat.ui.settings.SettingsViewModel.maxFps;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges redraw requests, which arrive with every traffic report, GPS fix and heading change, into at most one
+ * redraw per display frame, and no more than maxFps redraws per second.
+ * <p>
+ * request() may be called from any thread. The redraw itself runs on the UI thread, from a Choreographer frame
+ * callback.
+ */
+public class RefreshScheduler implements Choreographer.FrameCallback {
+    private final Runnable redraw;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable postFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+    // True from the first request until the redraw is done
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong requested = new AtomicLong();
+    private volatile long performed;
+    private long lastFrameNanos;
+
+    /**
+     * @param redraw Called on the UI thread to redraw
+     */
+    public RefreshScheduler(Runnable redraw) {
+        this.redraw = redraw;
+    }
+
+    public void request() {
+        requested.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper())
+                postFrame.run();
+            else
+                uiHandler.post(postFrame);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long interval = 1000000000L / Math.max(1, maxFps);
+        // Frame times jitter around the vsync period, so allow some slack: without it, a frame that arrives a little
+        // early is skipped and the rate halves, e.g. maxFps = 60 on a 60Hz display would only redraw at 30 fps
+        if (frameTimeNanos - lastFrameNanos < interval - interval / 4) {
+            // Too soon since the last redraw... try again next frame
+            Choreographer.getInstance().postFrameCallback(this);
+            return;
+        }
+        lastFrameNanos = frameTimeNanos;
+        // Requests from here on need another frame
+        scheduled.set(false);
+        //noinspection NonAtomicOperationOnVolatileField -- only called on the UI thread
+        performed++;
+        redraw.run();
+    }
+
+    /**
+     * @return Number of redraws requested
+     */
+    public long getRequested() {
+        return requested.get();
+    }
+
+    /**
+     * @return Number of redraws actually done
+     */
+    public long getPerformed() {
+        return performed;
+    }
+}
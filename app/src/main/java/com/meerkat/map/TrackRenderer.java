@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/**
+ * Draws a track as a few Canvas.drawLines() calls, one per colour, rather than one drawLine() per segment.
+ * <p>
+ * Segments are collected between begin() and end(), grouped by colour. Colours are rounded to 16 levels per channel
+ * so that the altitude gradient falls into a few dozen buckets at most. Nothing is allocated once the buckets have
+ * grown to fit the longest track. Only used by the thread drawing the map.
+ */
+class TrackRenderer {
+    private static final int MAX_BUCKETS = 48;
+    private final int[] colours = new int[MAX_BUCKETS];
+    private final int[] counts = new int[MAX_BUCKETS];
+    private final float[][] lines = new float[MAX_BUCKETS][16];
+    private int numBuckets;
+    private Canvas canvas;
+    private Paint paint;
+
+    void begin(Canvas canvas, Paint paint) {
+        this.canvas = canvas;
+        this.paint = paint;
+        numBuckets = 0;
+    }
+
+    /**
+     * Add a line segment
+     */
+    void line(float x0, float y0, float x1, float y1, int colour) {
+        int b = bucket(MapIcon.quantize(colour));
+        float[] l = lines[b];
+        int n = counts[b];
+        if (n + 4 > l.length)
+            lines[b] = l = Arrays.copyOf(l, l.length * 2);
+        l[n] = x0;
+        l[n + 1] = y0;
+        l[n + 2] = x1;
+        l[n + 3] = y1;
+        counts[b] = n + 4;
+    }
+
+    /**
+     * Draw all the segments added since begin()
+     */
+    void end() {
+        for (int b = 0; b < numBuckets; b++) {
+            paint.setColor(colours[b]);
+            canvas.drawLines(lines[b], 0, counts[b], paint);
+        }
+        numBuckets = 0;
+        canvas = null;
+    }
+
+    private int bucket(int colour) {
+        for (int b = 0; b < numBuckets; b++)
+            if (colours[b] == colour) return b;
+        if (numBuckets == MAX_BUCKETS) {
+            // Shouldn't happen with quantized colours, but just in case draw what we have and start again
+            Canvas c = canvas;
+            end();
+            canvas = c;
+        }
+        colours[numBuckets] = colour;
+        counts[numBuckets] = 0;
+        return numBuckets++;
+    }
+}
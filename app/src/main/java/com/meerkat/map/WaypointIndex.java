@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Waypoints grouped into a fixed latitude/longitude grid, so that only the waypoints near ownShip need to be looked at
+ * when drawing the map.
+ * <p>
+ * Waypoints are sorted by grid cell. The non-empty cells are listed in ascending order with the index of their first
+ * waypoint, so finding a cell is a binary search and its waypoints are consecutive. Waypoints may be created lazily,
+ * as queries find them, so queries should only be made from one thread (i.e. the one drawing the map).
+ */
+public class WaypointIndex {
+    // Grid cell size, degrees. 0.1 degree is about 11km
+    static final double CELL_DEGREES = 0.1;
+    private static final int LAT_CELLS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) Math.round(360 / CELL_DEGREES);
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    // Sorted by cell. Filled in by the loader as waypoints are needed
+    private final Cup[] waypoints;
+    private final IntFunction<Cup> loader;
+    private final double[] lats, lons;
+    // Non-empty cells in ascending order. The waypoints in cells[i] are starts[i] .. starts[i+1]-1
+    private final int[] cells;
+    private final int[] starts;
+
+    public WaypointIndex(List<Cup> list) {
+        this(list.stream()
+                .filter(c -> !Double.isNaN(c.getLatitude()) && !Double.isNaN(c.getLongitude()))
+                .sorted(Comparator.comparingInt(c -> cell(c.getLatitude(), c.getLongitude())))
+                .toArray(Cup[]::new));
+    }
+
+    private WaypointIndex(Cup[] sorted) {
+        this(sorted.length, i -> sorted[i].getLatitude(), i -> sorted[i].getLongitude(), i -> sorted[i]);
+    }
+
+    /**
+     * Index waypoints which are already sorted by cell, without creating them until they are needed
+     *
+     * @param loader Creates waypoint i
+     * @throws IllegalArgumentException if the waypoints are not sorted by cell
+     */
+    WaypointIndex(int n, IntToDoubleFunction lat, IntToDoubleFunction lon, IntFunction<Cup> loader) {
+        waypoints = new Cup[n];
+        this.loader = loader;
+        lats = new double[n];
+        lons = new double[n];
+        int[] cells = new int[n];
+        int[] starts = new int[n + 1];
+        int numCells = 0;
+        for (int i = 0; i < n; i++) {
+            lats[i] = lat.applyAsDouble(i);
+            lons[i] = lon.applyAsDouble(i);
+            int cell = cell(lats[i], lons[i]);
+            if (numCells == 0 || cells[numCells - 1] != cell) {
+                if (numCells > 0 && cells[numCells - 1] > cell)
+                    throw new IllegalArgumentException("Waypoints not sorted by cell at " + i);
+                cells[numCells] = cell;
+                starts[numCells++] = i;
+            }
+        }
+        starts[numCells] = n;
+        this.cells = Arrays.copyOf(cells, numCells);
+        this.starts = Arrays.copyOf(starts, numCells + 1);
+    }
+
+    public int size() {
+        return waypoints.length;
+    }
+
+    /**
+     * @return Waypoint i, in cell order
+     */
+    Cup get(int i) {
+        Cup c = waypoints[i];
+        if (c == null)
+            waypoints[i] = c = loader.apply(i);
+        return c;
+    }
+
+    private static int latCell(double lat) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor((lat + 90) / CELL_DEGREES)));
+    }
+
+    private static int lonCell(double lon) {
+        return Math.floorMod((int) Math.floor((lon + 180) / CELL_DEGREES), LON_CELLS);
+    }
+
+    static int cell(double lat, double lon) {
+        return latCell(lat) * LON_CELLS + lonCell(lon);
+    }
+
+    /**
+     * Find the waypoints within a given distance of a point
+     *
+     * @param radius Metres
+     * @param result Cleared, then filled with the waypoints found
+     */
+    public void query(double lat, double lon, double radius, List<Cup> result) {
+        result.clear();
+        if (cells.length == 0) return;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double dLat = radius / METRES_PER_DEGREE;
+        double dLon = cosLat < 1e-6 ? 180 : Math.min(180, dLat / cosLat);
+        int lonFrom = (int) Math.floor((lon - dLon + 180) / CELL_DEGREES);
+        int lonTo = (int) Math.floor((lon + dLon + 180) / CELL_DEGREES);
+        if (lonTo - lonFrom >= LON_CELLS) {
+            lonFrom = 0;
+            lonTo = LON_CELLS - 1;
+        }
+        double r2 = radius * radius;
+        for (int la = latCell(lat - dLat); la <= latCell(lat + dLat); la++) {
+            for (int lo = lonFrom; lo <= lonTo; lo++) {
+                int c = Arrays.binarySearch(cells, la * LON_CELLS + Math.floorMod(lo, LON_CELLS));
+                if (c < 0) continue;
+                for (int i = starts[c]; i < starts[c + 1]; i++) {
+                    double dy = (lats[i] - lat) * METRES_PER_DEGREE;
+                    double dx = lons[i] - lon;
+                    if (dx > 180) dx -= 360;
+                    else if (dx < -180) dx += 360;
+                    dx *= cosLat * METRES_PER_DEGREE;
+                    if (dx * dx + dy * dy <= r2)
+                        result.add(get(i));
+                }
+            }
+        }
+    }
+}
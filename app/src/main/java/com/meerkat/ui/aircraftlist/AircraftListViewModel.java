@@ -38,7 +38,7 @@ public class AircraftListViewModel extends ViewModel {
 
     private void refreshAircraftDisplay() {
         try {
-            Log.d("refreshAircraftDisplay: %d vehicles, %d rows", MainActivity.vehicleList.keySet().size(), tableAircraft.getChildCount());
+            Log.d("refreshAircraftDisplay: %d vehicles, %d rows", MainActivity.vehicleList.size(), tableAircraft.getChildCount());
             Stream<Vehicle> s = MainActivity.vehicleList.getVehicles().stream().sorted();
             int i = 1; // row 0 is header
 
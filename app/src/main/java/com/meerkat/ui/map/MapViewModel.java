@@ -2,6 +2,10 @@ package com.meerkat.ui.map;
 
 import androidx.lifecycle.ViewModel;
 
+import static com.meerkat.ui.settings.SettingsViewModel.renderThread;
+
+import android.view.View;
+
 import com.meerkat.MainActivity;
 import com.meerkat.databinding.FragmentMapBinding;
 import com.meerkat.map.Background;
@@ -14,6 +18,10 @@ public class MapViewModel extends ViewModel {
     public void init(FragmentMapBinding binding) {
         Background background = new Background(binding.mapView, binding.compassView, binding.compassText, binding.scaleText);
         binding.mapView.layers.addLayer(background);
+        if (renderThread) {
+            binding.mapSurface.setVisibility(View.VISIBLE);
+            binding.mapView.setSurface(binding.mapSurface);
+        }
         MainActivity.mapView = binding.mapView;
     }
 }
\ No newline at end of file
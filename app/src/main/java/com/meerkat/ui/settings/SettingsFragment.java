@@ -102,8 +102,10 @@
                 makeNumber("port", port);
                 makeNumber("replaySpeedFactor", replaySpeedFactor);
                 makeNumber("dangerRadius", (float) distanceUnits.fromM(dangerRadiusMetres));
+                setRange("ingestQueueCapacity", 16, 256, 1024, 16);
                 setRange("scrYPos", 5, 25, 95, 5);
                 setRange("scrWidth", 1, 1, 50, 1);
+                setRange("maxFps", 5, 30, 60, 5);
                 setRange("minZoom", 1, (int) distanceUnits.fromM(screenWidthMetres), 10, 1);
                 setRange("maxZoom", (int) distanceUnits.fromM(screenWidthMetres), 50, 50, 1);
                 setRange("circleRadiusStep", 1, 1, 25, 1);
@@ -113,6 +115,9 @@
                 setRange("minGpsIntervalSeconds", 1, 5, 10, 1);
                 setRange("historySecs", 0, 60, 300, 5);
                 setRange("purgeSecs", 5, 60, 300, 5);
+                setRange("coalesceMillis", 0, 200, 1000, 50);
+                setRange("replayStartMinutes", 0, 0, 600, 5);
+                setRange("loadTestTargets", 10, 200, 2000, 10);
                 setRange("predictionSecs", 5, 60, 300, 5);
                 setRange("polynomialPredictionStepSecs", 1, 6, 60, 1);
                 setRange("polynomialHistoryMillis", 1000, 2500, 10000, 100);
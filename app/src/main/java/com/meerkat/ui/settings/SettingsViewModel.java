@@ -12,6 +12,7 @@ import com.meerkat.log.Log;
 import com.meerkat.map.Cup;
 import com.meerkat.map.MapView;
 import com.meerkat.measure.Units;
+import com.meerkat.wifi.IngestQueue;
 
 import java.util.Locale;
 
@@ -26,16 +27,23 @@ public class SettingsViewModel extends ViewModel {
     static SharedPreferences prefs;
     public static volatile String wifiName;
     public static volatile int port;
+    public static volatile boolean useNioReceiver;
+    public static volatile int ingestQueueCapacity;
+    public static volatile IngestQueue.OverflowPolicy ingestOverflowPolicy;
     public static volatile boolean showLog;
     public static volatile boolean fileLog;
     public static volatile boolean appendLogFile;
+    public static volatile boolean asyncLog;
+    public static volatile boolean logCallerTags;
     public static volatile com.meerkat.log.Log.Level logLevel;
     public static volatile boolean logRawMessages;
+    public static volatile boolean captureRawMessages;
     public static volatile boolean logDecodedMessages;
     public static volatile boolean showLinearPredictionTrack;
     public static volatile boolean showPolynomialPredictionTrack;
     public static volatile int historySeconds;
     public static volatile int purgeSeconds;
+    public static volatile int coalesceMillis;
     // The minimum distance to change Updates in meters
     public static volatile int minGpsDistanceChangeMetres; // 10 meters
 
@@ -62,10 +70,16 @@ public class SettingsViewModel extends ViewModel {
     public static volatile boolean simulate;
     public static volatile float replaySpeedFactor;
     public static volatile String replaySpeedFactorString;
+    public static volatile boolean replayMaxSpeed;
+    public static volatile int replayStartMinutes;
+    public static volatile boolean loadTest;
+    public static volatile int loadTestTargets;
     public static volatile String countryCode;
     public static volatile String ownCallsign;
     public static volatile int ownId;
     public static volatile MapView.DisplayOrientation displayOrientation;
+    public static volatile boolean renderThread;
+    public static volatile int maxFps;
     public static volatile boolean keepScreenOn;
     public static volatile boolean autoZoom;
     public static volatile int minZoom, maxZoom;
@@ -94,9 +108,19 @@ public class SettingsViewModel extends ViewModel {
             Log.e("Invalid port %s", prefs.getString("port", null));
             saveNeeded = true;
         }
+        useNioReceiver = prefs.getBoolean("useNioReceiver", false);
+        ingestQueueCapacity = Math.max(16, Math.min(1024, prefs.getInt("ingestQueueCapacity", 256)));
+        try {
+            ingestOverflowPolicy = IngestQueue.OverflowPolicy.valueOf(prefs.getString("ingestOverflowPolicy", "Coalesce").trim());
+        } catch (Exception e) {
+            ingestOverflowPolicy = IngestQueue.OverflowPolicy.Coalesce;
+            saveNeeded = true;
+        }
         showLog = prefs.getBoolean("showLog", true);
         fileLog = prefs.getBoolean("fileLog", true);
         appendLogFile = prefs.getBoolean("appendLogFile", true);
+        asyncLog = prefs.getBoolean("asyncLog", false);
+        logCallerTags = prefs.getBoolean("logCallerTags", false);
         try {
             logLevel = com.meerkat.log.Log.Level.valueOf(prefs.getString("logLevel", "I").toUpperCase().trim().substring(0, 1));
         } catch (Exception e) {
@@ -105,11 +129,13 @@ public class SettingsViewModel extends ViewModel {
             saveNeeded = true;
         }
         logRawMessages = prefs.getBoolean("logRawMessages", true);
+        captureRawMessages = prefs.getBoolean("captureRawMessages", false);
         logDecodedMessages = prefs.getBoolean("logDecodedMessages", false);
         showLinearPredictionTrack = prefs.getBoolean("showLinearPredictionTrack", true);
         showPolynomialPredictionTrack = prefs.getBoolean("showPolynomialPredictionTrack", true);
         historySeconds = Math.max(0, Math.min(300, prefs.getInt("historySeconds", 60)));
         purgeSeconds = Math.max(1, Math.min(300, prefs.getInt("purgeSeconds", 30)));
+        coalesceMillis = Math.max(0, Math.min(1000, prefs.getInt("coalesceMillis", 200)));
         predictionMilliS = Math.max(0, Math.min(300, prefs.getInt("predictionSeconds", 60))) * 1000;
         polynomialPredictionStepMilliS = Math.max(1, Math.min(60, prefs.getInt("polynomialPredictionStepSeconds", 10))) * 1000;
         polynomialHistoryMilliS = Math.max(1000, Math.min(10000, prefs.getInt("polynomialHistoryMillis", 2000)));
@@ -169,6 +195,8 @@ public class SettingsViewModel extends ViewModel {
             saveNeeded = true;
         }
         keepScreenOn = prefs.getBoolean("keepScreenOn", true);
+        renderThread = prefs.getBoolean("renderThread", false);
+        maxFps = Math.max(5, Math.min(60, prefs.getInt("maxFps", 30)));
         autoZoom = prefs.getBoolean("autoZoom", false);
         minGpsDistanceChangeMetres = prefs.getInt("minGpsDistanceChangeMetres", 10);
         minGpsUpdateIntervalSeconds = prefs.getInt("minGpsUpdateIntervalSeconds", 1);
@@ -184,6 +212,10 @@ public class SettingsViewModel extends ViewModel {
             Log.e("NumberFormatException: %s (%s)", ex.getMessage(), replaySpeedFactorString);
             replaySpeedFactor = 10;
         }
+        replayMaxSpeed = prefs.getBoolean("replayMaxSpeed", false);
+        replayStartMinutes = Math.max(0, Math.min(600, prefs.getInt("replayStartMinutes", 0)));
+        loadTest = prefs.getBoolean("loadTest", false);
+        loadTestTargets = Math.max(10, Math.min(2000, prefs.getInt("loadTestTargets", 200)));
         useCupFile = prefs.getBoolean("useCupFile", true);
         try {
             labelText = Cup.Label.valueOf(prefs.getString("labelText", "Code").trim());
@@ -208,16 +240,23 @@ public class SettingsViewModel extends ViewModel {
         edit.putString("version", BuildConfig.VERSION_NAME);
         edit.putString("wifiName", wifiName);
         edit.putString("port", "" + port);
+        edit.putBoolean("useNioReceiver", useNioReceiver);
+        edit.putInt("ingestQueueCapacity", ingestQueueCapacity);
+        edit.putString("ingestOverflowPolicy", String.valueOf(ingestOverflowPolicy));
         edit.putBoolean("showLog", showLog);
         edit.putBoolean("fileLog", fileLog);
         edit.putBoolean("appendLogFile", appendLogFile);
+        edit.putBoolean("asyncLog", asyncLog);
+        edit.putBoolean("logCallerTags", logCallerTags);
         edit.putString("logLevel", String.valueOf(logLevel));
         edit.putBoolean("logRawMessages", logRawMessages);
+        edit.putBoolean("captureRawMessages", captureRawMessages);
         edit.putBoolean("logDecodedMessages", logDecodedMessages);
         edit.putBoolean("showLinearPredictionTrack", showLinearPredictionTrack);
         edit.putBoolean("showPolynomialPredictionTrack", showPolynomialPredictionTrack);
         edit.putInt("historySeconds", historySeconds);
         edit.putInt("purgeSeconds", purgeSeconds);
+        edit.putInt("coalesceMillis", coalesceMillis);
         edit.putInt("predictionSeconds", predictionMilliS / 1000);
         edit.putInt("polynomialPredictionStepSeconds", polynomialPredictionStepMilliS / 1000);
         edit.putInt("polynomialHistoryMillis", polynomialHistoryMilliS);
@@ -239,6 +278,8 @@ public class SettingsViewModel extends ViewModel {
         edit.putString("ownId", Integer.toHexString(ownId));
         edit.putString("displayOrientation", String.valueOf(displayOrientation));
         edit.putBoolean("keepScreenOn", keepScreenOn);
+        edit.putBoolean("renderThread", renderThread);
+        edit.putInt("maxFps", maxFps);
         edit.putBoolean("autoZoom", autoZoom);
         edit.putInt("toolbarDelaySecs", toolbarDelayMilliS / 1000);
         edit.putInt("initToolbarDelaySecs", initToolbarDelayMilliS / 1000);
@@ -248,6 +289,10 @@ public class SettingsViewModel extends ViewModel {
         edit.putBoolean("logreplay", logReplay);
         edit.putBoolean("simulate", simulate);
         edit.putString("replaySpeedFactor", String.format(Locale.ENGLISH, "%.2f", replaySpeedFactor));
+        edit.putBoolean("replayMaxSpeed", replayMaxSpeed);
+        edit.putInt("replayStartMinutes", replayStartMinutes);
+        edit.putBoolean("loadTest", loadTest);
+        edit.putInt("loadTestTargets", loadTestTargets);
         edit.putBoolean("useCupFile", useCupFile);
         edit.putString("labelText", labelText.toString());
         edit.putBoolean("showFrequency", showFrequency);
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.wifi;
+
+import com.meerkat.gdl90.Gdl90Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring buffer of received datagrams, so that the socket thread never waits for
+ * decoding and prediction. All slots are allocated up front; offer() and poll() only copy bytes.
+ * <p>
+ * When the ring is full, the overflow policy decides what is lost: DropOldest discards the oldest queued datagram;
+ * Coalesce replaces a queued report from the same aircraft if there is one, and otherwise drops the oldest.
+ * <p>
+ * Neither side takes a lock. The producer only moves the head (consumer index) by CAS when discarding, and a
+ * per-slot sequence number lets the consumer detect a slot that was overwritten while it was being copied.
+ */
+public class IngestQueue {
+    public enum OverflowPolicy {DropOldest, Coalesce}
+
+    private final OverflowPolicy policy;
+    private final int capacity, mask;
+    private final byte[][] data;
+    private final int[] lengths;
+    private final long[] times;
+    // Address of the aircraft in each queued datagram if it is a single Traffic report, otherwise -1
+    private final int[] participants;
+    // Odd while the producer is writing a slot
+    private final AtomicIntegerArray versions;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private final Gdl90Cursor producerCursor = new Gdl90Cursor();
+    private volatile Thread consumer;
+    private volatile long dropped, coalesced;
+    private volatile int maxDepth;
+    // Position of the slot being replaced by claim(), when coalescing
+    private long coalescedIndex;
+    private long polledTime;
+
+    public IngestQueue(int capacity, int maxDatagramSize, OverflowPolicy policy) {
+        this.policy = policy;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = this.capacity - 1;
+        data = new byte[this.capacity][maxDatagramSize];
+        lengths = new int[this.capacity];
+        times = new long[this.capacity];
+        participants = new int[this.capacity];
+        versions = new AtomicIntegerArray(this.capacity);
+    }
+
+    /**
+     * Queue a datagram. Called only from the receiving thread; never blocks.
+     */
+    public void offer(byte[] src, int offset, int len, long time) {
+        int participant = policy == OverflowPolicy.Coalesce ? participant(producerCursor.wrap(src, offset, len)) : -1;
+        int claimed = claim(participant), slot = claimed & mask;
+        len = Math.min(len, data[slot].length);
+        System.arraycopy(src, offset, data[slot], 0, len);
+        publish(claimed, participant, len, time);
+    }
+
+    /**
+     * Queue the bytes between the buffer's position and limit. The buffer's position is not changed.
+     */
+    public void offer(ByteBuffer src, long time) {
+        int participant = policy == OverflowPolicy.Coalesce ? participant(producerCursor.wrap(src)) : -1;
+        int claimed = claim(participant), slot = claimed & mask;
+        int len = Math.min(src.remaining(), data[slot].length);
+        int pos = src.position();
+        src.get(data[slot], 0, len);
+        src.position(pos);
+        publish(claimed, participant, len, time);
+    }
+
+    // Find the slot to write, discarding a queued datagram if the ring is full. The slot's version is left odd.
+    // The sign bit is set if an existing entry is being replaced, rather than a new one appended.
+    private int claim(int participant) {
+        long t = tail.get();
+        while (true) {
+            long h = head.get();
+            if (t - h < capacity) break;
+            if (participant != -1) {
+                // Newest first, so the report replaced is the most recent one for this aircraft
+                for (long i = t - 1; i > h; i--) {
+                    int slot = (int) i & mask;
+                    if (participants[slot] == participant) {
+                        coalescedIndex = i;
+                        versions.incrementAndGet(slot);
+                        //noinspection NonAtomicOperationOnVolatileField -- single writer
+                        coalesced++;
+                        return slot | Integer.MIN_VALUE;
+                    }
+                }
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                //noinspection NonAtomicOperationOnVolatileField -- single writer
+                dropped++;
+                break;
+            }
+        }
+        int slot = (int) t & mask;
+        versions.incrementAndGet(slot);
+        return slot;
+    }
+
+    private void publish(int claimed, int participant, int len, long time) {
+        int slot = claimed & mask;
+        lengths[slot] = len;
+        times[slot] = time;
+        participants[slot] = participant;
+        versions.incrementAndGet(slot);
+        if (claimed < 0 && head.get() > coalescedIndex) {
+            // The consumer took the slot before it was replaced, so the new report would be lost... append it instead
+            //noinspection NonAtomicOperationOnVolatileField -- single writer
+            coalesced--;
+            int appended = claim(-1);
+            System.arraycopy(data[slot], 0, data[appended], 0, len);
+            publish(appended, participant, len, time);
+            return;
+        }
+        if (claimed >= 0) {
+            long t = tail.get() + 1;
+            tail.set(t);
+            int depth = (int) (t - head.get());
+            if (depth > maxDepth) maxDepth = depth;
+        }
+        Thread c = consumer;
+        if (c != null) LockSupport.unpark(c);
+    }
+
+    private static int participant(Gdl90Cursor cursor) {
+        if (!cursor.nextFrame()) return -1;
+        int messageId = cursor.peek(0);
+        if (messageId != 10 && messageId != 20 || cursor.available() < 7) return -1;
+        int addr = (Math.min(cursor.peek(1) & 0x0f, 6) << 24) + (cursor.peek(2) << 16) + (cursor.peek(3) << 8) + cursor.peek(4);
+        // Only a datagram holding nothing but this one report can be replaced
+        return cursor.nextFrame() ? -1 : addr;
+    }
+
+    /**
+     * Remove the oldest datagram, waiting if the queue is empty. Called only from the processing thread.
+     *
+     * @param dest    Receives the datagram; must be at least maxDatagramSize long
+     * @param timeout Maximum time to wait, in milliseconds
+     * @return Length of the datagram, or -1 if nothing arrived within the timeout or the thread was interrupted
+     */
+    public int poll(byte[] dest, long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) return -1;
+                consumer = Thread.currentThread();
+                // Re-check after registering, in case the producer published without seeing us
+                if (h == tail.get())
+                    LockSupport.parkNanos(this, remaining);
+                consumer = null;
+                continue;
+            }
+            int slot = (int) h & mask;
+            int version = versions.get(slot);
+            if ((version & 1) != 0) continue;  // Being replaced right now
+            int len = lengths[slot];
+            long time = times[slot];
+            System.arraycopy(data[slot], 0, dest, 0, len);
+            // A plain get() here would be an acquire, which doesn't stop the copy's loads being satisfied after it.
+            // A CAS is also a release, so the copy is complete before the version is checked; if the producer's
+            // next increment follows this, the copy can't have seen any of its writes. (VarHandle.acquireFence()
+            // would do, but needs API 33.)
+            if (!versions.compareAndSet(slot, version, version)) continue;  // Replaced while copying... read it again
+            if (!head.compareAndSet(h, h + 1)) continue;  // Dropped by the producer while copying
+            polledTime = time;
+            return len;
+        }
+    }
+
+    /**
+     * @return Receive time of the datagram most recently returned by poll()
+     */
+    public long polledTime() {
+        return polledTime;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int depth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return Number of datagrams discarded because the queue was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return Number of queued reports replaced by a newer report from the same aircraft
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+}
@@ -12,9 +12,12 @@
  */
 package com.meerkat.wifi;
 
+import static com.meerkat.ui.settings.SettingsViewModel.ingestOverflowPolicy;
+import static com.meerkat.ui.settings.SettingsViewModel.ingestQueueCapacity;
 import static com.meerkat.ui.settings.SettingsViewModel.logDecodedMessages;
 import static com.meerkat.ui.settings.SettingsViewModel.logRawMessages;
 import static com.meerkat.ui.settings.SettingsViewModel.port;
+import static com.meerkat.ui.settings.SettingsViewModel.useNioReceiver;
 import static com.meerkat.ui.settings.SettingsViewModel.wifiName;
 
 import android.app.Service;
@@ -39,31 +42,57 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.meerkat.MainActivity;
+import com.meerkat.VirtualClock;
+import com.meerkat.gdl90.DuplicateFilter;
+import com.meerkat.gdl90.Gdl90Cursor;
 import com.meerkat.gdl90.Gdl90Message;
 import com.meerkat.gdl90.Traffic;
+import com.meerkat.log.CaptureWriter;
 import com.meerkat.log.Log;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.time.Instant;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Locale;
 
 public class PingComms extends Service {
-    private SocketThread thread;
+    private static final Log.Tag log = new Log.Tag("PingComms");
+    // Large enough for any datagram sent by the Ping
+    private static final int MAX_DATAGRAM_SIZE = 132;
+    // Repeated Traffic frames are dropped here, before being decoded
+    public static final DuplicateFilter duplicateFilter = new DuplicateFilter();
+    // Received datagrams wait here for the processing thread, so a burst of traffic never holds up the socket
+    public static volatile IngestQueue ingestQueue;
+    private Thread thread;
+    private ProcessThread processThread;
     private final Context context;
     private String currentWifiName;
     private int currentPort;
+    private boolean currentNioReceiver;
 
     @RequiresApi(api = Build.VERSION_CODES.Q)
     public PingComms(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * @param local Only receive from this device (i.e. the LoadGenerator), without connecting to the Ping's Wifi
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    public PingComms(Context context, boolean local) {
         this.context = context;
-        Log.i("PingComms constructor");
-        if (!connectToExistingWifi(wifiName))
+        log.i("PingComms constructor");
+        if (local)
+            start();
+        else if (!connectToExistingWifi(wifiName))
             startWifi(wifiName, null);
         currentWifiName = wifiName;
         currentPort = port;
+        currentNioReceiver = useNioReceiver;
     }
 
     @Nullable
@@ -86,7 +115,7 @@ public class PingComms extends Service {
         if (connectionInfo == null || connectionInfo.getSSID().isBlank()) return false;
         String activeSsid = connectionInfo.getSSID().replaceAll("\"", "");
         if (!activeSsid.equals(ssId)) return false;
-        Log.i("Already connected to Wifi %s", ssId);
+        log.i("Already connected to Wifi %s", ssId);
         // bind so all api calls are performed over this network
         cm.bindProcessToNetwork(cm.getActiveNetwork());
         start();
@@ -114,7 +143,7 @@ public class PingComms extends Service {
             public void onAvailable(@NonNull Network network) {
                 super.onAvailable(network);
                 if (wifiName.equals(activeNetworkName())) {
-                    Log.i("Connected to wifi %s", ssId);
+                    log.i("Connected to wifi %s", ssId);
                     // bind so all api calls are performed over this new network
                     cm.bindProcessToNetwork(network);
                 } else {
@@ -129,7 +158,7 @@ public class PingComms extends Service {
             public void onUnavailable() {
                 super.onUnavailable();
                 stop();
-                Log.i("Wifi unavailable: %s", ssId);
+                log.i("Wifi unavailable: %s", ssId);
             }
         };
         cm.registerNetworkCallback(request, networkCallback);
@@ -159,7 +188,7 @@ public class PingComms extends Service {
     }
 
     public void stop() {
-        Log.i("Stopping Ping comms");
+        log.i("Stopping Ping comms");
         if (thread.isAlive()) {
             thread.interrupt();
             try {
@@ -169,17 +198,32 @@ public class PingComms extends Service {
             }
             thread = null;
         }
+        if (processThread != null) {
+            processThread.interrupt();
+            try {
+                processThread.join();
+            } catch (InterruptedException e) {
+                // Do nothing
+            }
+            processThread = null;
+        }
     }
 
     public void start() {
-        if (currentWifiName != null && (currentPort != port || !currentWifiName.equals(wifiName))) {
+        if (currentWifiName != null && (currentPort != port || currentNioReceiver != useNioReceiver || !currentWifiName.equals(wifiName))) {
             stop();
             currentWifiName = wifiName;
             currentPort = port;
+            currentNioReceiver = useNioReceiver;
         }
 
+        if (processThread == null) {
+            ingestQueue = new IngestQueue(ingestQueueCapacity, MAX_DATAGRAM_SIZE, ingestOverflowPolicy);
+            processThread = new ProcessThread(ingestQueue);
+            processThread.start();
+        }
         if (thread == null) {
-            thread = new SocketThread();
+            thread = useNioReceiver ? new ChannelThread(ingestQueue) : new SocketThread(ingestQueue);
             try {
                 thread.start();
             } catch (IllegalThreadStateException e) {
@@ -187,7 +231,7 @@ public class PingComms extends Service {
             }
         }
         if (!thread.isAlive()) {
-            Log.i("Starting Ping comms");
+            log.i("Starting Ping comms");
             try {
                 thread.start();
             } catch (IllegalThreadStateException e) {
@@ -199,12 +243,14 @@ public class PingComms extends Service {
     private static class SocketThread extends Thread {
         private DatagramSocket recvSocket;
         private final DatagramPacket recvDatagram;
+        private final IngestQueue queue;
         // For handling retries
         private final RetryOnException retryHandler;
 
-        private SocketThread() {
+        private SocketThread(IngestQueue queue) {
+            this.queue = queue;
             retryHandler = new RetryOnException(10, 1000);
-            byte[] recvBuffer = new byte[132];
+            byte[] recvBuffer = new byte[MAX_DATAGRAM_SIZE];
             recvDatagram = new DatagramPacket(recvBuffer, recvBuffer.length);
             while (true) {
                 try {
@@ -215,7 +261,7 @@ public class PingComms extends Service {
                     retryHandler.reset();
                     break;
                 } catch (IOException ex) {
-                    Log.w("Socket create IO Exception: %s", ex);
+                    log.w("Socket create IO Exception: %s", ex);
                     // Catch exception and retry.
                     try {
                         // If beyond retry limit, this will throw an exception.
@@ -224,7 +270,7 @@ public class PingComms extends Service {
                             recvSocket.close();
                         recvSocket = null;
                     } catch (Exception fatal) {
-                        Log.a("Socket create failed: %s", fatal.getMessage());
+                        log.a("Socket create failed: %s", fatal.getMessage());
                         MainActivity.setAdsb(false, "Failed to connect to " + wifiName, Toast.LENGTH_LONG);
                         throw new RuntimeException(fatal);
                     }
@@ -236,7 +282,7 @@ public class PingComms extends Service {
 
         @Override
         public void interrupt() {
-            Log.v("Interrupt");
+            log.v("Interrupt");
             try {
                 interrupted = true;
                 retryHandler.disable();
@@ -250,23 +296,23 @@ public class PingComms extends Service {
         @Override
         public void run() {
             MainActivity.setAdsb(true, "Wifi connection to " + wifiName + " started", Toast.LENGTH_SHORT);
-            Log.d("receiveData");
+            log.d("receiveData");
             while (recvSocket != null) {  // Loop is exited via an interrupt which closes the socket
                 try {
                     //                     if (recvSocket == null) return;
-                    Log.v("Waiting for next datagram: %s", recvSocket.isBound());
+                    if (log.isLoggable(Log.Level.V)) log.v("Waiting for next datagram: %s", recvSocket.isBound());
                     // Blocks until a message returns on this socket from a remote host.
                     recvSocket.receive(recvDatagram);
                 } catch (IOException e) {
-                    Log.v("Interrupted");
+                    log.v("Interrupted");
                     if (interrupted) {
                         break;
                     }
                     try {
-                        Log.v("Retry");
+                        log.v("Retry");
                         retryHandler.exceptionOccurred();
                     } catch (Exception fatal) {
-                        Log.a("Socket read IO Exception: %s", fatal.getMessage());
+                        log.a("Socket read IO Exception: %s", fatal.getMessage());
                         recvSocket.close();
                         recvSocket = null;
                         MainActivity.setAdsb(false, "Wifi connection to " + wifiName + " lost", Toast.LENGTH_LONG);
@@ -277,29 +323,10 @@ public class PingComms extends Service {
                 // Successfully received a message
                 retryHandler.reset();
                 var numBytes = recvDatagram.getLength();
-                Log.v("received datagram %d bytes", numBytes);
-                byte[] packet = Arrays.copyOfRange(recvDatagram.getData(), 0, numBytes);
-                if (logRawMessages) {
-                    StringBuilder sb = new StringBuilder("GDL90 ");
-                    for (byte b : packet)
-                        sb.append(String.format("%02x", b));
-                    Log.i(sb.toString());
-                }
-                ByteArrayInputStream is = new ByteArrayInputStream(packet);
-                while (is.available() > 0) {
-                    Gdl90Message message = Gdl90Message.getMessage(is);
-                    if (message == null) continue;
-                    if (logDecodedMessages)
-                        Log.i(message.toString());
-                    if (message instanceof Traffic traffic1) {
-                        if (traffic1.callsign.equals("********") || traffic1.point.getLatitude() == 0 && traffic1.point.getLongitude() == 0)
-                            continue;
-                        traffic1.point.setTime(Instant.now().toEpochMilli());
-                        traffic1.upsert(MainActivity.vehicleList);
-                    }
-                }
+                if (log.isLoggable(Log.Level.V)) log.v("received datagram %d bytes", numBytes);
+                queue.offer(recvDatagram.getData(), 0, numBytes, VirtualClock.millis());
             }
-            Log.i("Socket thread stopped");
+            log.i("Socket thread stopped");
             if (recvSocket != null)
                 recvSocket.close();
             recvSocket = null;
@@ -307,6 +334,162 @@ public class PingComms extends Service {
     }
 
 
+    /**
+     * Receive engine using a DatagramChannel. Every datagram is received into the same direct buffer and decoded
+     * in place, so nothing is copied or allocated per datagram.
+     */
+    private static class ChannelThread extends Thread {
+        private DatagramChannel channel;
+        private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        private final IngestQueue queue;
+        // For handling retries
+        private final RetryOnException retryHandler;
+
+        private ChannelThread(IngestQueue queue) {
+            this.queue = queue;
+            retryHandler = new RetryOnException(10, 1000);
+            while (true) {
+                try {
+                    channel = DatagramChannel.open();
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+                    channel.bind(new InetSocketAddress(port));
+                    retryHandler.reset();
+                    break;
+                } catch (IOException ex) {
+                    log.w("Channel create IO Exception: %s", ex);
+                    // Catch exception and retry.
+                    try {
+                        // If beyond retry limit, this will throw an exception.
+                        retryHandler.exceptionOccurred();
+                        close();
+                    } catch (Exception fatal) {
+                        log.a("Channel create failed: %s", fatal.getMessage());
+                        MainActivity.setAdsb(false, "Failed to connect to " + wifiName, Toast.LENGTH_LONG);
+                        throw new RuntimeException(fatal);
+                    }
+                }
+            }
+        }
+
+        private boolean interrupted = false;
+
+        @Override
+        public void interrupt() {
+            log.v("Interrupt");
+            try {
+                interrupted = true;
+                retryHandler.disable();
+                close();
+            } finally {
+                super.interrupt();
+            }
+        }
+
+        private void close() {
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException e) {
+                log.w("Channel close IO Exception: %s", e.getMessage());
+            }
+        }
+
+        @Override
+        public void run() {
+            MainActivity.setAdsb(true, "Wifi connection to " + wifiName + " started", Toast.LENGTH_SHORT);
+            log.d("receiveData");
+            while (channel.isOpen()) {  // Loop is exited via an interrupt which closes the channel
+                recvBuffer.clear();
+                try {
+                    // Blocks until a message arrives on this channel from a remote host.
+                    channel.receive(recvBuffer);
+                } catch (IOException e) {
+                    log.v("Interrupted");
+                    if (interrupted) {
+                        break;
+                    }
+                    try {
+                        log.v("Retry");
+                        retryHandler.exceptionOccurred();
+                    } catch (Exception fatal) {
+                        log.a("Channel read IO Exception: %s", fatal.getMessage());
+                        close();
+                        MainActivity.setAdsb(false, "Wifi connection to " + wifiName + " lost", Toast.LENGTH_LONG);
+                    }
+                    continue;
+                }
+
+                // Successfully received a message
+                retryHandler.reset();
+                recvBuffer.flip();
+                if (log.isLoggable(Log.Level.V)) log.v("received datagram %d bytes", recvBuffer.remaining());
+                queue.offer(recvBuffer, VirtualClock.millis());
+            }
+            log.i("Channel thread stopped");
+            close();
+        }
+    }
+
+    /**
+     * Takes datagrams from the ingest queue and decodes them, off the receiving thread.
+     */
+    private static class ProcessThread extends Thread {
+        private final IngestQueue queue;
+        private final byte[] packet = new byte[MAX_DATAGRAM_SIZE];
+        private final Gdl90Cursor cursor = new Gdl90Cursor();
+
+        private ProcessThread(IngestQueue queue) {
+            super("PingComms process");
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                int numBytes = queue.poll(packet, 1000);
+                if (numBytes < 0) continue;
+                if (logRawMessages) {
+                    StringBuilder sb = new StringBuilder("GDL90 ");
+                    for (int i = 0; i < numBytes; i++)
+                        sb.append(String.format("%02x", packet[i]));
+                    log.i(sb.toString());
+                }
+                CaptureWriter capture = MainActivity.capture;
+                if (capture != null)
+                    capture.write(CaptureWriter.SOURCE_GDL90, queue.polledTime(), packet, 0, numBytes);
+                process(cursor.wrap(packet, 0, numBytes), queue.polledTime());
+            }
+            log.i("Process thread stopped: %s, %d duplicate frames dropped", queueStats(queue), duplicateFilter.getDropped());
+        }
+    }
+
+    public static String queueStats(IngestQueue queue) {
+        return String.format(Locale.ENGLISH, "queue depth %d (max %d of %d), %d dropped, %d coalesced",
+                queue.depth(), queue.getMaxDepth(), queue.capacity(), queue.getDropped(), queue.getCoalesced());
+    }
+
+    /**
+     * Decode all the GDL90 messages in a received datagram, and add any traffic reports to the vehicle list
+     *
+     * @param cursor Cursor wrapping the datagram
+     * @param time   Time the datagram was received
+     */
+    private static void process(Gdl90Cursor cursor, long time) {
+        Gdl90Message message;
+        while ((message = Gdl90Message.getMessage(cursor, duplicateFilter)) != null) {
+            if (logDecodedMessages)
+                log.i(message.toString());
+            if (message instanceof Traffic traffic1) {
+                if (traffic1.callsign.equals("********") || traffic1.getLatitude() == 0 && traffic1.getLongitude() == 0)
+                    continue;
+                traffic1.time = time;
+                traffic1.upsert(MainActivity.vehicleList);
+            }
+        }
+    }
+
+
     /**
      * Encapsulates retry-on-exception operations
      */
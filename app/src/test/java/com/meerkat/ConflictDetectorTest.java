@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConflictDetectorTest extends TestCase {
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void testHeadOn() {
+        ConflictDetector cd = new ConflictDetector();
+        cd.setOwnShip(1000, 0, 0);
+        // 5km north, flying south at 100m/s: passes overhead after 50s
+        cd.segment(0, 5000, 1000, 0, -100, 0, 0, 120000);
+        Assert.assertEquals(0, cd.cpaDistance, DELTA);
+        Assert.assertEquals(0, cd.cpaAltDiff, DELTA);
+        Assert.assertEquals(50000, cd.cpaMillis);
+    }
+
+    @Test
+    public void testCrossing() {
+        ConflictDetector cd = new ConflictDetector();
+        // OwnShip flying north at 50m/s, vehicle 2km east and 1km north flying west at 50m/s
+        cd.setOwnShip(1000, 0, 50);
+        cd.segment(2000, 1000, 1200, -50, 0, 0, 0, 120000);
+        Assert.assertEquals(Math.sqrt(2) * 500, cd.cpaDistance, DELTA);
+        Assert.assertEquals(200, cd.cpaAltDiff, DELTA);
+        Assert.assertEquals(30000, cd.cpaMillis);
+    }
+
+    @Test
+    public void testDiverging() {
+        ConflictDetector cd = new ConflictDetector();
+        cd.setOwnShip(1000, 0, 0);
+        // Moving away, so closest now
+        cd.segment(3000, 4000, 1500, 30, 40, -5, 0, 120000);
+        Assert.assertEquals(5000, cd.cpaDistance, DELTA);
+        Assert.assertEquals(500, cd.cpaAltDiff, DELTA);
+        Assert.assertEquals(0, cd.cpaMillis);
+    }
+
+    @Test
+    public void testClampedToSegmentEnd() {
+        ConflictDetector cd = new ConflictDetector();
+        cd.setOwnShip(1000, 0, 0);
+        // Would pass overhead after 100s, but the segment ends after 60s
+        cd.segment(0, 10000, 3000, 0, -100, -10, 0, 60000);
+        Assert.assertEquals(4000, cd.cpaDistance, DELTA);
+        Assert.assertEquals(1400, cd.cpaAltDiff, DELTA);
+        Assert.assertEquals(60000, cd.cpaMillis);
+    }
+
+    @Test
+    public void testLaterSegment() {
+        ConflictDetector cd = new ConflictDetector();
+        cd.setOwnShip(1000, 0, 50);
+        // Segment starting 10s from now, at a point ownShip reaches 20s after that
+        cd.segment(0, 1500, 1000, 0, 0, 0, 10000, 30000);
+        Assert.assertEquals(0, cd.cpaDistance, DELTA);
+        Assert.assertEquals(30000, cd.cpaMillis);
+    }
+
+    @Test
+    public void testFormation() {
+        ConflictDetector cd = new ConflictDetector();
+        cd.setOwnShip(1000, 40, 30);
+        // Same velocity as ownShip: the separation never changes
+        cd.segment(300, 400, 1100, 40, 30, Double.NaN, 0, 120000);
+        Assert.assertEquals(500, cd.cpaDistance, DELTA);
+        Assert.assertEquals(100, cd.cpaAltDiff, DELTA);
+        Assert.assertEquals(0, cd.cpaMillis);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.benchmark;
+
+import com.meerkat.gdl90.Gdl90Cursor;
+import com.meerkat.gdl90.Gdl90Encoder;
+import com.meerkat.gdl90.Gdl90Message;
+import com.meerkat.log.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation per frame of Gdl90Message.getMessage(), for the kinds of datagram a Ping sends. Each operation
+ * is one frame, so with the gc profiler (see the jmh task in build.gradle) the results are ns/frame and, as
+ * gc.alloc.rate.norm, bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Gdl90DecodeBenchmark {
+    // Captured from a Ping-USB
+    private static final String TRAFFIC = "7e1400c82349e36df37cc02e0f89800d4f7d5e8000414e5a3131334d2006339f7e";
+    private static final String HEARTBEAT = "7e008141dbd00802b38b7e";
+
+    private final Gdl90Cursor cursor = new Gdl90Cursor();
+    private byte[] singleTraffic;
+    private byte[] multiMessage;
+    private byte[] escaped;
+    private byte[] badCrc;
+
+    private static byte[] hex(String s) {
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        return result;
+    }
+
+    @Setup
+    public void setup() {
+        // As the app runs, so that verbose messages aren't formatted
+        Log.level(Log.Level.I);
+        singleTraffic = hex(TRAFFIC);
+
+        // As sent once a second: heartbeat, ownship, ownship geometric altitude, traffic
+        var encoder = new Gdl90Encoder(256);
+        encoder.ownship(0xc81234, -41.3, 174.8, 2500, true, 95, 0, 180, 1, "ZK-MKT")
+                .geometricAltitude(2650, 10, false)
+                .traffic(0xc82349, -41.25, 174.85, 3100, true, 212, -1024, 180, 3, "ANZ113M");
+        byte[] heartbeat = hex(HEARTBEAT);
+        multiMessage = Arrays.copyOf(heartbeat, heartbeat.length + encoder.length());
+        System.arraycopy(encoder.array(), 0, multiMessage, heartbeat.length, encoder.length());
+
+        // Fields made of flag and escape bytes, so that most of the frame is escaped
+        encoder.clear().traffic(0x7e7d7e, (0xfe7d7e - 0x1000000) * 180.0 / 0x800000, 0x7e7d7e * 180.0 / 0x800000,
+                0x7e7 * 25 - 1000, true, 0x7d7, 0, 0x7e * 360 / 256f, 1, "~}~}~}~}");
+        escaped = Arrays.copyOf(encoder.array(), encoder.length());
+
+        badCrc = hex(TRAFFIC);
+        badCrc[20] ^= 0x01;
+    }
+
+    private void decode(byte[] datagram, Blackhole bh) {
+        cursor.wrap(datagram);
+        Gdl90Message msg;
+        while ((msg = Gdl90Message.getMessage(cursor)) != null)
+            bh.consume(msg);
+    }
+
+    @Benchmark
+    public void singleTraffic(Blackhole bh) {
+        decode(singleTraffic, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void multiMessage(Blackhole bh) {
+        decode(multiMessage, bh);
+    }
+
+    @Benchmark
+    public void escapedTraffic(Blackhole bh) {
+        decode(escaped, bh);
+    }
+
+    @Benchmark
+    public void badCrcTraffic(Blackhole bh) {
+        decode(badCrc, bh);
+    }
+}
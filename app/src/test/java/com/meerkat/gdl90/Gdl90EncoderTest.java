@@ -0,0 +1,185 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.gdl90;
+
+import com.meerkat.map.VehicleIcon;
+import com.meerkat.measure.Units;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+
+public class Gdl90EncoderTest extends TestCase {
+
+    // Signed 24 bit value in the current frame, as read by get3BytesDegrees()
+    private static double degrees(Gdl90Cursor cursor, int index) {
+        int val = (cursor.peek(index) << 16) | (cursor.peek(index + 1) << 8) | cursor.peek(index + 2);
+        if ((val & 0x800000) != 0) val -= 0x1000000;
+        return val * 180.0 / 0x800000;
+    }
+
+    @Test
+    public void testTraffic() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(64);
+        encoder.traffic(0xc82349, -41.3, 174.8, 5000, true, 120, 500, 90, 1, "ZK-ABC");
+        var cursor = new Gdl90Cursor().wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        Assert.assertTrue(cursor.crcValid());
+        Assert.assertEquals(-41.3, degrees(cursor, 5), 180.0 / 0x800000);
+        Assert.assertEquals(174.8, degrees(cursor, 8), 180.0 / 0x800000);
+        byte messageId = (byte) cursor.next();
+        Assert.assertEquals(20, messageId);
+        Traffic t = new Traffic(messageId, cursor);
+        Assert.assertEquals(0xc82349, t.participantAddr);
+        Assert.assertEquals("ZK-ABC", t.callsign);
+        Assert.assertTrue(t.airborne);
+        Assert.assertEquals(VehicleIcon.Emitter.Light, t.emitterType);
+        Assert.assertEquals(8, t.nic);
+        Assert.assertEquals(8, t.nac);
+        Assert.assertEquals(Units.Height.FT.toM(5000.0), t.alt, 1e-6);
+        Assert.assertEquals(Units.Speed.KNOTS.toMps(120.0), t.speed, 1e-4);
+        Assert.assertEquals(90, t.track, 1e-4);
+        // 500fpm is rounded to the nearest 64fpm
+        Assert.assertEquals(Units.VertSpeed.FPM.toMps(512f), t.vVel, 1e-6);
+        Assert.assertFalse(cursor.nextFrame());
+    }
+
+    @Test
+    public void testDescendingTraffic() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(64);
+        encoder.traffic(0x123456, 40.0, -105.0, 12345, true, 455, -1000, 359.5f, 3, "N12345");
+        var cursor = new Gdl90Cursor().wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        Assert.assertTrue(cursor.crcValid());
+        byte messageId = (byte) cursor.next();
+        Traffic t = new Traffic(messageId, cursor);
+        Assert.assertEquals(40.0, t.getLatitude(), 180.0 / 0x800000);
+        Assert.assertEquals(-105.0, t.getLongitude(), 180.0 / 0x800000);
+        // Altitude has 25ft resolution
+        Assert.assertEquals(Units.Height.FT.toM(12350.0), t.alt, 1e-6);
+        Assert.assertEquals(Units.Speed.KNOTS.toMps(455.0), t.speed, 1e-4);
+        // 359.5 degrees rounds to 256/256, which wraps to 0
+        Assert.assertEquals(0, t.track, 1e-4);
+        Assert.assertEquals(Units.VertSpeed.FPM.toMps(-1024f), t.vVel, 1e-6);
+        Assert.assertEquals(VehicleIcon.Emitter.Large, t.emitterType);
+
+        encoder.clear().traffic(0x123456, 40.0, -105.0, 12345, true, 455, -1000, 358, 3, "N12345");
+        cursor.wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        t = new Traffic((byte) cursor.next(), cursor);
+        Assert.assertEquals(255 * 360.0 / 256, t.track, 1e-4);
+    }
+
+    @Test
+    public void testEscapes() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(64);
+        encoder.ownship(0x7e7d7e, 0, 0, 0, false, 0, 0, 0, 0, "");
+        byte[] out = encoder.array();
+        int n = encoder.length();
+        Assert.assertEquals(0x7e, out[0]);
+        Assert.assertEquals(0x7e, out[n - 1]);
+        for (int i = 1; i < n - 1; i++)
+            Assert.assertNotEquals(0x7e, out[i]);
+        var cursor = new Gdl90Cursor().wrap(out, 0, n);
+        Assert.assertTrue(cursor.nextFrame());
+        Assert.assertTrue(cursor.crcValid());
+        byte messageId = (byte) cursor.next();
+        Assert.assertEquals(10, messageId);
+        Assert.assertEquals(0x7e7d7e, new Traffic(messageId, cursor).participantAddr);
+    }
+
+    @Test
+    public void testSeveralMessages() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(256);
+        encoder.heartbeat(true, 80000).geometricAltitude(5100, 10, false).foreFlightId(-1, "Meerkat", "Meerkat test", 0);
+        var cursor = new Gdl90Cursor().wrap(encoder.array(), 0, encoder.length());
+        int[] expected = {0, 11, 0x65};
+        for (int id : expected) {
+            Assert.assertTrue(cursor.nextFrame());
+            Assert.assertTrue(cursor.crcValid());
+            Assert.assertEquals(id, cursor.next());
+        }
+        Assert.assertFalse(cursor.nextFrame());
+
+        cursor.wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        cursor.next();
+        new Heartbeat(cursor);
+        Assert.assertTrue(cursor.nextFrame());
+        cursor.next();
+        new OwnShipGeometricAltitude(cursor);
+
+        // clear() starts a new datagram
+        Assert.assertEquals(0, encoder.clear().length());
+    }
+
+    @Test
+    public void testUavionixIdentity() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(64);
+        encoder.uavionixIdentity(1, 0xc8177e, 9, "GLIDER1", 0.55f, 3, 5, 7);
+        var cursor = new Gdl90Cursor().wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        Assert.assertTrue(cursor.crcValid());
+        Assert.assertEquals(117, cursor.next());
+        var u = new UavionixOem(cursor);
+        Assert.assertEquals(Character.highSurrogate('u'), u.signature);
+        Assert.assertEquals(1, u.subType);
+        Assert.assertEquals(0xc8177e, u.icao);
+        Assert.assertEquals(VehicleIcon.Emitter.Glider, u.emitterType);
+        Assert.assertEquals("GLIDER1", u.callsign);
+        Assert.assertEquals(0.55f, u.stallSpeed, 1e-6);
+        Assert.assertEquals(Gdl90Message.AircraftLengthWeightLookup[3], u.avLw);
+        Assert.assertEquals(Gdl90Message.lateralGpsOfsLookup[5], u.antOfslat);
+        Assert.assertEquals(7, u.antOfsLon);
+        Assert.assertFalse(u.qiMode);
+    }
+
+    @Test
+    public void testUavionixQiMode() throws UnsupportedEncodingException {
+        var encoder = new Gdl90Encoder(128);
+        encoder.uavionixQiMode(true, 1.0123, -250, Double.NaN, 1234, 0.5, 3048.125, 6096.25);
+        var cursor = new Gdl90Cursor().wrap(encoder.array(), 0, encoder.length());
+        Assert.assertTrue(cursor.nextFrame());
+        Assert.assertTrue(cursor.crcValid());
+        Assert.assertEquals(117, cursor.next());
+        var u = new UavionixOem(cursor);
+        Assert.assertEquals(38, u.subType);
+        Assert.assertEquals(2, u.msgVersion);
+        Assert.assertTrue(u.qiMode);
+        Assert.assertEquals(1.0123, u.lowTrimSlope, 1e-9);
+        Assert.assertEquals(-250, u.lowTrimYIntercept, 1e-9);
+        Assert.assertTrue(Double.isNaN(u.highTrimSlope));
+        Assert.assertEquals(1234, u.highTrimYIntercept, 1e-9);
+        Assert.assertEquals(0.5, u.lowPointAlt, 1e-9);
+        Assert.assertEquals(3048.125, u.midPointAlt, 1e-9);
+        Assert.assertEquals(6096.25, u.highPointAlt, 1e-9);
+        // Nothing left over but the CRC
+        Assert.assertEquals(2, cursor.available());
+    }
+
+    @Test
+    public void testOverflow() {
+        var encoder = new Gdl90Encoder(40);
+        encoder.heartbeat(false, 0);
+        try {
+            encoder.heartbeat(false, 0).heartbeat(false, 0);
+            Assert.fail("Expected overflow");
+        } catch (BufferOverflowException e) {
+            // Expected
+        }
+    }
+}
@@ -16,7 +16,6 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -276,7 +275,7 @@ public class TrafficTest extends TestCase {
         SettingsViewModel.distanceUnits = Units.Distance.NM;
         SettingsViewModel.vertSpeedUnits = Units.VertSpeed.FPM;
         Log.level(Log.Level.D);
-        Traffic prev = null;
+        MockPositionTest prev = null;
         long prevTime = 0;
         String[] rawHex = {
                 "07.773", "7e1400c82349e36df37cc02e0f89800d4ff08000414e5a3131334d2006f3427e",
@@ -294,22 +293,23 @@ public class TrafficTest extends TestCase {
                 raw[j / 2] = (byte) Integer.parseInt(data.substring(j, j + 2), 16);
             }
 
-            ByteArrayInputStream is = new ByteArrayInputStream(raw);
-            Assert.assertEquals(0x7e, is.read());
-            byte messageId = (byte) is.read();
+            Gdl90Cursor cursor = new Gdl90Cursor().wrap(raw);
+            Assert.assertTrue(cursor.nextFrame());
+            byte messageId = (byte) cursor.next();
             Assert.assertEquals(20, messageId);
-            Traffic t = new Traffic(messageId, p1, is);
+            Traffic t = new Traffic(messageId, cursor);
+            t.toPosition(p1);
             Assert.assertTrue("CRC", t.crcValid);
             System.out.println(t);
             if (prev != null) {
                 int elapsed = (int) (time - prevTime);
-                MockPositionTest predicted = (MockPositionTest) prev.point;
+                MockPositionTest predicted = prev;
                 predicted.moveBy(elapsed);
-                System.out.printf("Actual    %s\n", t.point);
+                System.out.printf("Actual    %s\n", p1);
                 System.out.printf("Predicted %s\n", predicted);
-                System.out.printf("%5.1f @ %d\n", predicted.distanceTo((MockPositionTest) t.point), (int) predicted.bearingTo((MockPositionTest) t.point));
+                System.out.printf("%5.1f @ %d\n", predicted.distanceTo(p1), (int) predicted.bearingTo(p1));
             }
-            prev = t;
+            prev = p1;
             prevTime = time;
             Assert.assertEquals(13116233, t.participantAddr);
             Assert.assertEquals(8, t.nic);
@@ -325,49 +325,116 @@ public class TrafficTest extends TestCase {
     public void testdeg() throws UnsupportedEncodingException {
         Log.level(Log.Level.V);
         byte[] raw = {0, 0, 0};
-        ByteArrayInputStream is = new ByteArrayInputStream(raw);
-        Gdl90Message msg = new Gdl90Message(is, 1, (byte) 10);
+        Gdl90Cursor cursor = new Gdl90Cursor().wrap(raw);
+        Assert.assertTrue(cursor.nextFrame());
+        Gdl90Message msg = new Gdl90Message(cursor, 1, (byte) 10);
         double lat = msg.get3BytesDegrees();
         Assert.assertEquals(0, lat, 1e-5);
         raw[2] = 1;
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(180.0 / 0x800000, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{0x1f, (byte) 0xF0, (byte) 0xb6};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(44.91602, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{(byte) 0xa8, (byte) 0x8c, 0x31};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(-122.9799, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(-180.0 / 0x800000, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{0x20, 0, 0};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(45, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{(byte) 0xe0, 0, 0};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(-45, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{(byte) 0x80, 0, 0};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(-180, lat, 180.0 / 0x800000 / 2);
         raw = new byte[]{(byte) 0x7f, (byte) 0xff, (byte) 0xff};
-        is = new ByteArrayInputStream(raw);
-        msg = new Gdl90Message(is, 1, (byte) 10);
+        cursor.wrap(raw).nextFrame();
+        msg = new Gdl90Message(cursor, 1, (byte) 10);
         lat = msg.get3BytesDegrees();
         Assert.assertEquals(180 - 180.0 / 0x800000, lat, 180.0 / 0x800000 / 2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMultipleMessages() {
+        // Heartbeat followed by a Traffic report containing an escaped 0x7e, in the one datagram
+        String data = "7e008141dbd00802b38b7e7e1400c82349e36df37cc02e0f89800d4f7d5e8000414e5a3131334d2006339f7e";
+        byte[] raw = new byte[data.length() / 2];
+        for (int j = 0; j < data.length(); j += 2) {
+            raw[j / 2] = (byte) Integer.parseInt(data.substring(j, j + 2), 16);
+        }
+        Gdl90Cursor cursor = new Gdl90Cursor().wrap(raw);
+        Gdl90Message msg = Gdl90Message.getMessage(cursor);
+        Assert.assertTrue(msg instanceof Heartbeat);
+        Assert.assertTrue("CRC", msg.crcValid);
+        msg = Gdl90Message.getMessage(cursor);
+        Assert.assertTrue(msg instanceof Traffic);
+        Assert.assertTrue("CRC", msg.crcValid);
+        Assert.assertEquals("ANZ113M", ((Traffic) msg).callsign);
+        Assert.assertNull(Gdl90Message.getMessage(cursor));
+
+        // A repeat of the same datagram is dropped before decoding
+        DuplicateFilter duplicates = new DuplicateFilter();
+        cursor.wrap(raw);
+        Assert.assertTrue(Gdl90Message.getMessage(cursor, duplicates) instanceof Heartbeat);
+        Assert.assertTrue(Gdl90Message.getMessage(cursor, duplicates) instanceof Traffic);
+        cursor.wrap(raw);
+        Assert.assertTrue(Gdl90Message.getMessage(cursor, duplicates) instanceof Heartbeat);
+        Assert.assertNull(Gdl90Message.getMessage(cursor, duplicates));
+        Assert.assertEquals(1, duplicates.getDropped());
+
+        // Corrupt one byte of the traffic report
+        raw[22] ^= 1;
+        cursor.wrap(raw);
+        Assert.assertTrue(Gdl90Message.getMessage(cursor).crcValid);
+        Assert.assertFalse(Gdl90Message.getMessage(cursor).crcValid);
+    }
+
+    @Test
+    public void testDuplicateExpiry() {
+        String data = "7e1400c82349e36df37cc02e0f89800d4f7d5e8000414e5a3131334d2006339f7e";
+        byte[] raw = new byte[data.length() / 2];
+        for (int j = 0; j < data.length(); j += 2) {
+            raw[j / 2] = (byte) Integer.parseInt(data.substring(j, j + 2), 16);
+        }
+        Gdl90Cursor cursor = new Gdl90Cursor();
+        DuplicateFilter duplicates = new DuplicateFilter();
+        Assert.assertTrue(cursor.wrap(raw).nextFrame());
+        Assert.assertFalse(duplicates.isDuplicate(cursor, 1000));
+        Assert.assertTrue(cursor.wrap(raw).nextFrame());
+        Assert.assertTrue(duplicates.isDuplicate(cursor, 1000 + DuplicateFilter.EXPIRY_MILLIS - 1));
+        // VehicleList has purged the target, and it is still sending the identical frame
+        Assert.assertTrue(cursor.wrap(raw).nextFrame());
+        Assert.assertFalse(duplicates.isDuplicate(cursor, 1000 + DuplicateFilter.EXPIRY_MILLIS));
+        Assert.assertTrue(cursor.wrap(raw).nextFrame());
+        Assert.assertTrue(duplicates.isDuplicate(cursor, 1000 + DuplicateFilter.EXPIRY_MILLIS + 1));
+        Assert.assertEquals(2, duplicates.getDropped());
+
+        // Reports from ownship are never dropped
+        int savedOwnId = SettingsViewModel.ownId;
+        try {
+            SettingsViewModel.ownId = 0xc82349;
+            Assert.assertTrue(cursor.wrap(raw).nextFrame());
+            Assert.assertFalse(duplicates.isDuplicate(cursor, 1000 + DuplicateFilter.EXPIRY_MILLIS + 2));
+        } finally {
+            SettingsViewModel.ownId = savedOwnId;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class CaptureIndexTest extends TestCase {
+    private static final long START = 1_700_000_000_000L;
+
+    // One minute of capture, with a frame every 500ms. Each frame's data is its number
+    private static File capture() throws IOException {
+        File file = File.createTempFile("index", ".cap");
+        file.deleteOnExit();
+        new File(file.getPath() + ".idx").deleteOnExit();
+        var writer = new CaptureWriter(file, START);
+        for (int i = 0; i < 120; i++)
+            writer.write(CaptureWriter.SOURCE_GDL90, START + i * 500L, new byte[]{(byte) i}, 0, 1);
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void testPosition() throws IOException {
+        File file = capture();
+        CaptureIndex index = CaptureIndex.load(file);
+        Assert.assertEquals(6, index.size());
+        Assert.assertEquals(START, index.getStartTime());
+        Assert.assertEquals(START + 50_000, index.getEndTime());
+        try (var reader = new CaptureReader(file)) {
+            // Before the start of the capture
+            reader.seek(index.position(START - 5000));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(START, reader.time());
+            // Exactly on an index entry
+            reader.seek(index.position(START + 20_000));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(START + 20_000, reader.time());
+            Assert.assertEquals(40, reader.data()[0]);
+            // Between entries: the earlier one
+            reader.seek(index.position(START + 29_999));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(START + 20_000, reader.time());
+            // After the end: the last entry
+            reader.seek(index.position(START + 3_600_000));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(START + 50_000, reader.time());
+        }
+    }
+
+    @Test
+    public void testSeekForward() throws IOException {
+        File file = capture();
+        CaptureIndex index = CaptureIndex.load(file);
+        // As LogReplay does: seek to the entry before the time, then read forward to it
+        long target = START + 37_250;
+        try (var reader = new CaptureReader(file)) {
+            reader.seek(index.position(target));
+            int frames = 0;
+            while (reader.next() && reader.time() < target)
+                frames++;
+            Assert.assertEquals(15, frames);
+            Assert.assertEquals(START + 37_500, reader.time());
+            Assert.assertEquals(75, reader.data()[0]);
+        }
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        File file = capture();
+        CaptureIndex built = CaptureIndex.load(file);
+        File indexFile = new File(file.getPath() + ".idx");
+        Assert.assertTrue(indexFile.exists());
+        CaptureIndex read = CaptureIndex.read(indexFile, file.lastModified(), file.length());
+        Assert.assertNotNull(read);
+        Assert.assertEquals(built.size(), read.size());
+        for (long t = START; t < START + 60_000; t += 2500)
+            Assert.assertEquals(built.position(t), read.position(t));
+        // A changed capture makes the index out of date
+        Assert.assertNull(CaptureIndex.read(indexFile, file.lastModified(), file.length() + 1));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.log;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class CaptureWriterTest extends TestCase {
+    private static final long START = 1_700_000_000_000L;
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("capture", ".cap");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        File file = tempFile();
+        new CaptureWriter(file, START).close();
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        Assert.assertEquals(CaptureWriter.HEADER_SIZE, b.remaining());
+        Assert.assertEquals(CaptureWriter.MAGIC, b.getInt());
+        Assert.assertEquals(CaptureWriter.VERSION, b.getInt());
+        Assert.assertEquals(START, b.getLong());
+        try (var reader = new CaptureReader(file)) {
+            Assert.assertEquals(START, reader.getStartTime());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testNotACapture() throws IOException {
+        File file = tempFile();
+        Files.write(file.toPath(), "00:00:00.000 GDL90 7e00817e".getBytes());
+        try {
+            new CaptureReader(file).close();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testGps() throws IOException {
+        File file = tempFile();
+        var writer = new CaptureWriter(file, START);
+        writer.writeGps(START + 1234, -41.25, 174.75, 152.5, 33.5f, 271.25f);
+        writer.close();
+
+        // Frame header then payload, straight after the file header
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        Assert.assertEquals(CaptureWriter.HEADER_SIZE + CaptureWriter.FRAME_HEADER_SIZE + CaptureWriter.GPS_SIZE, b.remaining());
+        b.position(CaptureWriter.HEADER_SIZE);
+        Assert.assertEquals(CaptureWriter.GPS_SIZE, b.getShort());
+        Assert.assertEquals(CaptureWriter.SOURCE_GPS, b.get());
+        Assert.assertEquals(1234, b.getInt());
+        Assert.assertEquals(-41.25, b.getDouble(), 0);
+        Assert.assertEquals(174.75, b.getDouble(), 0);
+        Assert.assertEquals(152.5, b.getDouble(), 0);
+        Assert.assertEquals(33.5f, b.getFloat(), 0);
+        Assert.assertEquals(271.25f, b.getFloat(), 0);
+
+        try (var reader = new CaptureReader(file)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(CaptureWriter.SOURCE_GPS, reader.source());
+            Assert.assertEquals(START + 1234, reader.time());
+            Assert.assertEquals(CaptureWriter.GPS_SIZE, reader.length());
+            ByteBuffer p = reader.payload();
+            Assert.assertEquals(-41.25, p.getDouble(), 0);
+            Assert.assertEquals(174.75, p.getDouble(), 0);
+            Assert.assertEquals(152.5, p.getDouble(), 0);
+            Assert.assertEquals(33.5f, p.getFloat(), 0);
+            Assert.assertEquals(271.25f, p.getFloat(), 0);
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = tempFile();
+        var writer = new CaptureWriter(file, START);
+        // More than fits in the writer's and reader's buffers
+        byte[] data = new byte[200];
+        for (int i = 0; i < 1000; i++) {
+            data[0] = (byte) i;
+            data[1] = (byte) (i >> 8);
+            writer.write(CaptureWriter.SOURCE_GDL90, START + i * 100L, data, 0, 2 + i % 199);
+        }
+        writer.close();
+        Assert.assertFalse(writer.hasFailed());
+        try (var reader = new CaptureReader(file)) {
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(CaptureWriter.SOURCE_GDL90, reader.source());
+                Assert.assertEquals(START + i * 100L, reader.time());
+                Assert.assertEquals(2 + i % 199, reader.length());
+                Assert.assertEquals(i, (reader.data()[0] & 0xff) | (reader.data()[1] & 0xff) << 8);
+            }
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testPeriodicFlush() throws IOException {
+        File file = tempFile();
+        var writer = new CaptureWriter(file, START);
+        byte[] data = {1, 2, 3};
+        writer.write(CaptureWriter.SOURCE_GDL90, START + 1, data, 0, data.length);
+        Assert.assertEquals(0, file.length());
+        // Written to the file without closing it
+        writer.write(CaptureWriter.SOURCE_GDL90, START + CaptureWriter.FLUSH_INTERVAL_MILLIS, data, 0, data.length);
+        long written = CaptureWriter.HEADER_SIZE + 2 * (CaptureWriter.FRAME_HEADER_SIZE + data.length);
+        Assert.assertEquals(written, file.length());
+        writer.write(CaptureWriter.SOURCE_GDL90, START + CaptureWriter.FLUSH_INTERVAL_MILLIS + 1, data, 0, data.length);
+        Assert.assertEquals(written, file.length());
+        writer.close();
+    }
+
+    @Test
+    public void testTimeNeverDecreases() throws IOException {
+        File file = tempFile();
+        var writer = new CaptureWriter(file, START);
+        byte[] data = {1};
+        // Before the start of the capture
+        writer.write(CaptureWriter.SOURCE_GDL90, START - 500, data, 0, 1);
+        writer.write(CaptureWriter.SOURCE_GDL90, START + 2000, data, 0, 1);
+        // e.g. the system clock has been set back
+        writer.write(CaptureWriter.SOURCE_GDL90, START + 1000, data, 0, 1);
+        writer.write(CaptureWriter.SOURCE_GDL90, START + 3000, data, 0, 1);
+        writer.close();
+        long[] expected = {START, START + 2000, START + 2000, START + 3000};
+        try (var reader = new CaptureReader(file)) {
+            for (long t : expected) {
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(t, reader.time());
+            }
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        File file = tempFile();
+        var writer = new CaptureWriter(file, START);
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        for (int i = 0; i < 3; i++)
+            writer.write(CaptureWriter.SOURCE_GDL90, START + i, data, 0, data.length);
+        writer.close();
+        long full = file.length();
+        // Cut off part way through the last frame's payload, then part way through its header
+        for (long cut : new long[]{1, data.length + 2}) {
+            try (var raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(full - cut);
+            }
+            try (var reader = new CaptureReader(file)) {
+                Assert.assertTrue(reader.next());
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(START + 1, reader.time());
+                Assert.assertFalse(reader.next());
+            }
+        }
+    }
+}
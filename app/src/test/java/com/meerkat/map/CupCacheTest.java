@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CupCacheTest extends TestCase {
+    private static final long MODIFIED = 1_700_000_000_000L;
+    private static final long LENGTH = 12345;
+
+    private static File cache(WaypointIndex index) throws IOException {
+        File file = File.createTempFile("waypoints", ".cup.bin");
+        file.deleteOnExit();
+        CupCache.write(file, index, MODIFIED, LENGTH);
+        return file;
+    }
+
+    private static WaypointIndex waypoints() {
+        return new WaypointIndex(List.of(
+                new MockCup("Paraparaumu", "NZPP", "NZ", -40.9047, 174.9893, 6, 5, 160, 1347, "118.4", "Tower"),
+                new MockCup("Ōtaki", null, "NZ", -40.7437, 175.1498, 30.5, 3, 90, 600, null, ""),
+                new MockCup("Masterton", "NZMS", "NZ", -40.9733, 175.6333, 111, 5, 60, 1417, "119.5", null)));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        WaypointIndex original = waypoints();
+        WaypointIndex mapped = CupCache.map(cache(original), MODIFIED, LENGTH, MockCup::new);
+        Assert.assertNotNull(mapped);
+        Assert.assertEquals(original.size(), mapped.size());
+        for (int i = 0; i < original.size(); i++) {
+            Cup a = original.get(i), b = mapped.get(i);
+            Assert.assertEquals(a.name, b.name);
+            Assert.assertEquals(a.code, b.code);
+            Assert.assertEquals(a.country, b.country);
+            Assert.assertEquals(a.getLatitude(), b.getLatitude(), 0);
+            Assert.assertEquals(a.getLongitude(), b.getLongitude(), 0);
+            // Altitude is stored as a float
+            Assert.assertEquals(a.getAltitude(), b.getAltitude(), 1e-4);
+            Assert.assertEquals(a.style, b.style);
+            Assert.assertEquals(a.runwayDir, b.runwayDir);
+            Assert.assertEquals(a.runwayLen, b.runwayLen, 0);
+            Assert.assertEquals(a.frequency, b.frequency);
+            Assert.assertEquals(a.description, b.description);
+        }
+        // Waypoints are created from the cache only when a query finds them
+        var result = new ArrayList<Cup>();
+        mapped.query(-40.75, 175.15, 1000, result);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("Ōtaki", result.get(0).name);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        WaypointIndex mapped = CupCache.map(cache(new WaypointIndex(List.of())), MODIFIED, LENGTH, MockCup::new);
+        Assert.assertNotNull(mapped);
+        Assert.assertEquals(0, mapped.size());
+    }
+
+    @Test
+    public void testOutOfDate() throws IOException {
+        File file = cache(waypoints());
+        Assert.assertNull(CupCache.map(file, MODIFIED + 1000, LENGTH, MockCup::new));
+        Assert.assertNull(CupCache.map(file, MODIFIED, LENGTH - 1, MockCup::new));
+        Assert.assertNotNull(CupCache.map(file, MODIFIED, LENGTH, MockCup::new));
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        File file = cache(waypoints());
+        try (var raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0);
+        }
+        assertInvalid(file);
+    }
+
+    @Test
+    public void testBadStrings() throws IOException {
+        // String table cut short
+        File file = cache(waypoints());
+        try (var raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertInvalid(file);
+
+        // First record's name outside the string table
+        file = cache(waypoints());
+        try (var raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(32 + 32);
+            raf.writeInt(1_000_000);
+        }
+        assertInvalid(file);
+
+        // Negative string length
+        file = cache(waypoints());
+        try (var raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(32 + 3 * 52);
+            raf.writeInt(-2);
+        }
+        assertInvalid(file);
+    }
+
+    private static void assertInvalid(File file) {
+        try {
+            CupCache.map(file, MODIFIED, LENGTH, MockCup::new);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+/**
+ * Cup which keeps its own position, as android.location.Location's methods aren't available in unit tests
+ */
+class MockCup extends Cup {
+    double lat, lon, alt;
+
+    MockCup(String name, double lat, double lon) {
+        this(name, null, null, lat, lon, 0, 1, 0, 0, null, null);
+    }
+
+    MockCup(String name, String code, String country, double lat, double lon, double alt, int style, int runwayDir, float runwayLen, String frequency, String description) {
+        super(name, code, country, lat, lon, alt, style, runwayDir, runwayLen, frequency, description);
+    }
+
+    @Override
+    public void setLatitude(double lat) {
+        this.lat = lat;
+    }
+
+    @Override
+    public void setLongitude(double lon) {
+        this.lon = lon;
+    }
+
+    @Override
+    public void setAltitude(double alt) {
+        this.alt = alt;
+    }
+
+    @Override
+    public double getLatitude() {
+        return lat;
+    }
+
+    @Override
+    public double getLongitude() {
+        return lon;
+    }
+
+    @Override
+    public double getAltitude() {
+        return alt;
+    }
+
+    @Override
+    public void setAccuracy(float accuracy) {
+    }
+
+    @Override
+    public void setVerticalAccuracyMeters(float accuracy) {
+    }
+}
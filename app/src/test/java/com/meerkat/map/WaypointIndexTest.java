@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class WaypointIndexTest extends TestCase {
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private static Set<String> names(List<Cup> cups) {
+        var result = new TreeSet<String>();
+        for (Cup c : cups)
+            result.add(c.name);
+        return result;
+    }
+
+    private static WaypointIndex index(Cup... cups) {
+        return new WaypointIndex(List.of(cups));
+    }
+
+    @Test
+    public void testCellEdges() {
+        // Either side of the cell boundary at 41.0S 174.0E
+        var index = index(new MockCup("SW", -41.0005, 173.9995), new MockCup("NE", -40.9995, 174.0005),
+                new MockCup("Far", -41.2, 174.0));
+        Assert.assertNotEquals(WaypointIndex.cell(-41.0005, 173.9995), WaypointIndex.cell(-40.9995, 174.0005));
+        var result = new ArrayList<Cup>();
+        index.query(-41.0, 174.0, 200, result);
+        Assert.assertEquals(Set.of("NE", "SW"), names(result));
+        // Query point in one cell, waypoint just over the boundary in the next
+        index.query(-40.9995, 174.0005, 100, result);
+        Assert.assertEquals(Set.of("NE"), names(result));
+        index.query(-40.999, 174.001, 0.002 * METRES_PER_DEGREE, result);
+        Assert.assertEquals(Set.of("NE", "SW"), names(result));
+        // Searching several cells
+        index.query(-41.15, 174.0, 0.06 * METRES_PER_DEGREE, result);
+        Assert.assertEquals(Set.of("Far"), names(result));
+        index.query(-41.0, 174.0, 10, result);
+        Assert.assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testAntimeridian() {
+        var index = index(new MockCup("East", 0, 179.95), new MockCup("West", 0, -179.95),
+                new MockCup("Dateline", 0, 180), new MockCup("Greenwich", 0, 0));
+        // 180E and 180W are the same place
+        Assert.assertEquals(WaypointIndex.cell(0, 180), WaypointIndex.cell(0, -180));
+        var result = new ArrayList<Cup>();
+        index.query(0, 179.99, 10000, result);
+        Assert.assertEquals(Set.of("Dateline", "East", "West"), names(result));
+        index.query(0, -179.99, 10000, result);
+        Assert.assertEquals(Set.of("Dateline", "East", "West"), names(result));
+        index.query(0, -179.99, 5000, result);
+        Assert.assertEquals(Set.of("Dateline", "West"), names(result));
+    }
+
+    @Test
+    public void testNotSorted() {
+        // Coordinates of waypoints 0 and 1 are in descending cell order
+        double[] lats = {10, -10};
+        try {
+            new WaypointIndex(2, i -> lats[i], i -> 0, i -> null);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
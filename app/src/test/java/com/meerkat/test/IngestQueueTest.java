@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.test;
+
+import com.meerkat.wifi.IngestQueue;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IngestQueueTest extends TestCase {
+    private static final byte[] heartbeat = hex("7e008141dbd00802b38b7e");
+    private static final byte[] traffic = hex("7e1400c82349e36df37cc02e0f89800d4f7d5e8000414e5a3131334d2006339f7e");
+
+    private static byte[] hex(String s) {
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        return result;
+    }
+
+    @Test
+    public void testDropOldest() {
+        IngestQueue queue = new IngestQueue(4, 132, IngestQueue.OverflowPolicy.DropOldest);
+        Assert.assertEquals(4, queue.capacity());
+        for (int i = 0; i < 6; i++)
+            queue.offer(heartbeat, 0, heartbeat.length, i);
+        Assert.assertEquals(4, queue.depth());
+        Assert.assertEquals(2, queue.getDropped());
+        byte[] dest = new byte[132];
+        for (int i = 2; i < 6; i++) {
+            Assert.assertEquals(heartbeat.length, queue.poll(dest, 0));
+            Assert.assertEquals(i, queue.polledTime());
+        }
+        Assert.assertEquals(-1, queue.poll(dest, 10));
+        Assert.assertEquals(0, queue.depth());
+        Assert.assertEquals(4, queue.getMaxDepth());
+    }
+
+    @Test
+    public void testCoalesce() {
+        IngestQueue queue = new IngestQueue(4, 132, IngestQueue.OverflowPolicy.Coalesce);
+        queue.offer(heartbeat, 0, heartbeat.length, 0);
+        queue.offer(traffic, 0, traffic.length, 1);
+        queue.offer(heartbeat, 0, heartbeat.length, 2);
+        queue.offer(traffic, 0, traffic.length, 3);
+        // Queue is full: the newest report from the same aircraft is replaced
+        queue.offer(traffic, 0, traffic.length, 4);
+        Assert.assertEquals(1, queue.getCoalesced());
+        Assert.assertEquals(0, queue.getDropped());
+        // Heartbeats cannot be coalesced, so the oldest entry goes
+        queue.offer(heartbeat, 0, heartbeat.length, 5);
+        Assert.assertEquals(1, queue.getDropped());
+        byte[] dest = new byte[132];
+        long[] expected = {1, 2, 4, 5};
+        for (long time : expected) {
+            Assert.assertTrue(queue.poll(dest, 0) > 0);
+            Assert.assertEquals(time, queue.polledTime());
+        }
+        Assert.assertEquals(-1, queue.poll(dest, 0));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.test;
+
+import com.meerkat.PolynomialRegression;
+import com.meerkat.SlidingPolynomialRegression;
+import com.meerkat.test.PolynomialRegressionTest.Data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingPolynomialRegressionTest {
+    private static final Data[] track = new Data[]{
+            new Data(400000, 310), new Data(401000, 289), new Data(402000, 284), new Data(403000, 284),
+            new Data(404000, 201), new Data(405000, 198), new Data(406000, 191), new Data(407000, 142),
+            new Data(408000, 142)
+    };
+
+    private static final Data[] track4 = new Data[]{
+            new Data(0, 72), new Data(1000, 52), new Data(2000, 49), new Data(3000, 38),
+            new Data(4000, 34), new Data(5000, 28)
+    };
+
+    private static void assertCoefficients(double[][] expected, double[][] actual) {
+        Assert.assertEquals(expected == null, actual == null);
+        if (expected == null) return;
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i][3], actual[i][3], 0);
+            for (int j = 0; j < 3; j++)
+                Assert.assertEquals(expected[i][j], actual[i][j], Math.abs(expected[i][j]) * 1e-6 + 1e-12);
+        }
+    }
+
+    // Fit data[from..to) from scratch, as Vehicle used to
+    private static double[][] batch(Data[] data, int from, int to) {
+        PolynomialRegression pr = new PolynomialRegression(data[from].l, 1);
+        for (int i = from; i < to; i++)
+            pr.add(data[i].l, data[i].f);
+        return pr.getCoefficients();
+    }
+
+    @Test
+    public void testSameAsBatch() {
+        for (Data[] data : new Data[][]{track, track4}) {
+            SlidingPolynomialRegression spr = new SlidingPolynomialRegression(16, 1);
+            for (int i = 0; i < data.length; i++) {
+                spr.add(data[i].l, data[i].f);
+                assertCoefficients(batch(data, 0, i + 1), spr.getCoefficients());
+            }
+        }
+        SlidingPolynomialRegression spr = new SlidingPolynomialRegression(16, 1);
+        for (Data d : track4)
+            spr.add(d.l + 1000, d.f);
+        Assert.assertArrayEquals(new double[]{69.7857, -0.01403, 1.17857e-6, 1000}, spr.getCoefficients()[0], 0.001);
+    }
+
+    @Test
+    public void testSliding() {
+        // Window of 4 seconds sliding along the track, which also forces the time origin to be moved
+        SlidingPolynomialRegression spr = new SlidingPolynomialRegression(16, 1);
+        int from = 0;
+        for (int i = 0; i < track.length; i++) {
+            spr.add(track[i].l, track[i].f);
+            spr.expireBefore(track[i].l - 4000);
+            while (track[from].l < track[i].l - 4000) from++;
+            Assert.assertEquals(i + 1 - from, spr.size());
+            assertCoefficients(batch(track, from, i + 1), spr.getCoefficients());
+        }
+        // Full ring drops the oldest sample
+        SlidingPolynomialRegression small = new SlidingPolynomialRegression(4, 1);
+        for (Data d : track)
+            small.add(d.l, d.f);
+        Assert.assertEquals(4, small.size());
+        assertCoefficients(batch(track, track.length - 4, track.length), small.getCoefficients());
+    }
+
+    @Test
+    public void testOffset() {
+        SlidingPolynomialRegression spr = new SlidingPolynomialRegression(16, 1);
+        for (Data d : track)
+            spr.add(d.l, d.f - 360);
+        spr.offset(0, 360);
+        assertCoefficients(batch(track, 0, track.length), spr.getCoefficients());
+        spr.expireBefore(track[3].l);
+        assertCoefficients(batch(track, 3, track.length), spr.getCoefficients());
+    }
+}
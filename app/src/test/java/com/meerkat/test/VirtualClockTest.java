@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 Frank van der Hulst drifter.frank@gmail.com
+ *
+ * This software is made available under a Creative Commons Attribution-NonCommercial 4.0 International (CC BY-NC 4.0) License
+ * https://creativecommons.org/licenses/by-nc/4.0/
+ *
+ * You are free to share (copy and redistribute the material in any medium or format) and
+ * adapt (remix, transform, and build upon the material) this software under the following terms:
+ * Attribution — You must give appropriate credit, provide a link to the license, and indicate if changes were made.
+ * You may do so in any reasonable manner, but not in any way that suggests the licensor endorses you or your use.
+ * NonCommercial — You may not use the material for commercial purposes.
+ */
+package com.meerkat.test;
+
+import com.meerkat.VirtualClock;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VirtualClockTest extends TestCase {
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    public void testReal() {
+        VirtualClock.useReal();
+        Assert.assertEquals(VirtualClock.Mode.REAL, VirtualClock.getMode());
+        Assert.assertEquals(1, VirtualClock.getRate(), 0);
+        long before = System.currentTimeMillis();
+        long now = VirtualClock.millis();
+        Assert.assertTrue(now >= before && now <= System.currentTimeMillis());
+        // Only REPLAY and STEPPED time can be set
+        VirtualClock.setTime(START);
+        VirtualClock.advance(1000);
+        Assert.assertTrue(VirtualClock.millis() >= now);
+        Assert.assertEquals(1000, VirtualClock.toReal(1000));
+    }
+
+    @Test
+    public void testReplay() {
+        try {
+            long before = System.currentTimeMillis();
+            VirtualClock.useReplay(4);
+            Assert.assertEquals(VirtualClock.Mode.REPLAY, VirtualClock.getMode());
+            Assert.assertEquals(4, VirtualClock.getRate(), 0);
+            // The current time until the first message is replayed
+            long now = VirtualClock.millis();
+            Assert.assertTrue(now >= before && now <= System.currentTimeMillis());
+            VirtualClock.setTime(START);
+            Assert.assertEquals(START, VirtualClock.millis());
+            VirtualClock.advance(500);
+            Assert.assertEquals(START + 500, VirtualClock.millis());
+            Assert.assertEquals(START + 500, VirtualClock.instant().toEpochMilli());
+            Assert.assertEquals(250, VirtualClock.toReal(1000));
+        } finally {
+            VirtualClock.useReal();
+        }
+    }
+
+    @Test
+    public void testAccelerated() throws InterruptedException {
+        try {
+            VirtualClock.useAccelerated(10);
+            Assert.assertEquals(VirtualClock.Mode.ACCELERATED, VirtualClock.getMode());
+            Assert.assertEquals(10, VirtualClock.getRate(), 0);
+            long realStart = System.nanoTime();
+            long start = VirtualClock.millis();
+            Thread.sleep(100);
+            long elapsed = VirtualClock.millis() - start;
+            long realElapsed = (System.nanoTime() - realStart) / 1000000;
+            Assert.assertTrue("elapsed " + elapsed, elapsed >= 1000 - 10 && elapsed <= realElapsed * 10 + 10);
+            // Setting the time has no effect: the clock runs on its own
+            VirtualClock.setTime(START);
+            Assert.assertTrue(VirtualClock.millis() >= start + elapsed);
+            Assert.assertEquals(100, VirtualClock.toReal(1000));
+            // Never less than 1ms, so timers still run
+            VirtualClock.useAccelerated(1000);
+            Assert.assertEquals(1, VirtualClock.toReal(100));
+        } finally {
+            VirtualClock.useReal();
+        }
+    }
+
+    @Test
+    public void testStepped() throws InterruptedException {
+        try {
+            VirtualClock.useStepped(START);
+            Assert.assertEquals(VirtualClock.Mode.STEPPED, VirtualClock.getMode());
+            Assert.assertEquals(1, VirtualClock.getRate(), 0);
+            Assert.assertEquals(START, VirtualClock.millis());
+            Thread.sleep(20);
+            Assert.assertEquals(START, VirtualClock.millis());
+            VirtualClock.advance(1500);
+            Assert.assertEquals(START + 1500, VirtualClock.millis());
+            VirtualClock.setTime(START - 60000);
+            Assert.assertEquals(START - 60000, VirtualClock.millis());
+            Assert.assertEquals(1000, VirtualClock.toReal(1000));
+        } finally {
+            VirtualClock.useReal();
+        }
+    }
+
+    @Test
+    public void testBadRate() {
+        VirtualClock.useReal();
+        for (float rate : new float[]{0, -1, Float.NaN}) {
+            try {
+                VirtualClock.useAccelerated(rate);
+                Assert.fail("Expected IllegalArgumentException for rate " + rate);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        Assert.assertEquals(VirtualClock.Mode.REAL, VirtualClock.getMode());
+    }
+}